@@ -0,0 +1,27 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of benchmarks.jar. Checks for the ONNX files before starting the
+ * JMH runner and excludes {@link EmbedderBenchmark} if they are missing, so that
+ * its setup does not fail once per parameter combination. All arguments are
+ * passed on to JMH.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String missing = EmbedderBenchmark.findMissingModelFiles();
+        if (missing != null) {
+            System.err.println("Skipping EmbedderBenchmark, the ONNX tokenizer and model are required ("
+                    + missing + ")");
+            args = Arrays.copyOf(args, args.length + 2);
+            args[args.length - 2] = "-e";
+            args[args.length - 1] = EmbedderBenchmark.class.getSimpleName();
+        }
+
+        org.openjdk.jmh.Main.main(args);
+    }
+}
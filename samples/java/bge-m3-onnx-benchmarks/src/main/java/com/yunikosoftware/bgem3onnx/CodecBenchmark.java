@@ -0,0 +1,66 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing embedding outputs with all three types. Encoding into a reused
+ * buffer and reading through a view are the paths used by the persistent cache
+ * and should only allocate small view objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({ "16", "128", "512" })
+    public int seqLength;
+
+    private M3EmbeddingOutput output;
+    private ByteBuffer target;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        output = SyntheticOutputs.output(new Random(42), seqLength);
+        target = ByteBuffer.allocateDirect(M3EmbeddingCodec.encodedSize(output));
+        encoded = ByteBuffer.wrap(M3EmbeddingCodec.encode(output));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeToBuffer() {
+        target.clear();
+        M3EmbeddingCodec.encode(output, target);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] encodeToArray() {
+        return M3EmbeddingCodec.encode(output);
+    }
+
+    @Benchmark
+    public M3EmbeddingOutput decode() {
+        return M3EmbeddingCodec.decode(encoded.duplicate());
+    }
+
+    @Benchmark
+    public float readViewDense() {
+        // Reads one value in place, without copying the output to the heap
+        return M3EmbeddingCodec.wrap(encoded.duplicate()).getDenseEmbedding().get(0);
+    }
+}
@@ -0,0 +1,150 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end embedding with the real tokenizer and model found through
+ * {@link RepositoryUtils}. Each operation embeds one batch of texts that are
+ * exactly seqLength tokens long, so the reported throughput is in batches; multiply
+ * by batchSize for texts per second. Without the ONNX files {@link BenchmarkMain}
+ * excludes this class and the other benchmarks still run.
+ *
+ * The parameter space is large, narrow it down on the command line, e.g.
+ * "java -jar target/benchmarks.jar EmbedderBenchmark -p seqLength=128 -p batchSize=1,8".
+ * Use "-t" to measure several callers sharing one model session.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EmbedderBenchmark {
+    // Common English words that the XLM-RoBERTa vocabulary holds as single tokens
+    private static final String[] WORDS = { "the", "of", "and", "to", "in", "is", "that", "for", "it", "with",
+            "as", "was", "on", "be", "by", "at", "this", "from", "or", "an" };
+
+    @Param({ "16", "128", "512", "2048" })
+    public int seqLength;
+
+    @Param({ "1", "8", "32" })
+    public int batchSize;
+
+    /**
+     * Intra-op threads of the model session (0 uses the ONNX Runtime default)
+     */
+    @Param({ "0", "1", "4" })
+    public int intraOpThreads;
+
+    /**
+     * Requested outputs: ALL, or a single output type
+     */
+    @Param({ "ALL", "DENSE", "SPARSE", "COLBERT" })
+    public String outputs;
+
+    private M3Embedder embedder;
+    private List<String> texts;
+    private Set<M3OutputType> outputTypes;
+
+    /**
+     * Checks that the tokenizer and model files exist
+     *
+     * @return A description of the missing files, or null if both exist
+     */
+    static String findMissingModelFiles() {
+        Path tokenizerPath;
+        Path modelPath;
+        try {
+            tokenizerPath = RepositoryUtils.getTokenizerPath();
+            modelPath = RepositoryUtils.getModelPath();
+        } catch (FileNotFoundException e) {
+            return e.getMessage();
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (Path path : List.of(tokenizerPath, modelPath)) {
+            if (!Files.exists(path)) {
+                missing.add(path.toString());
+            }
+        }
+        return missing.isEmpty() ? null : "not found: " + String.join(", ", missing);
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Path tokenizerPath = RepositoryUtils.getTokenizerPath();
+        Path modelPath = RepositoryUtils.getModelPath();
+        M3EmbedderConfig config = new M3EmbedderConfig.Builder()
+                .intraOpNumThreads(intraOpThreads)
+                .build();
+        embedder = new M3Embedder(tokenizerPath.toString(), modelPath.toString(), config);
+        outputTypes = "ALL".equals(outputs) ? M3OutputType.ALL : EnumSet.of(M3OutputType.valueOf(outputs));
+
+        String text = textOfLength(seqLength);
+        texts = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            texts.add(text);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (embedder != null) {
+            embedder.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<M3EmbeddingOutput> throughput() throws Exception {
+        return embedder.generateEmbeddings(texts, outputTypes);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<M3EmbeddingOutput> latency() throws Exception {
+        return embedder.generateEmbeddings(texts, outputTypes);
+    }
+
+    /**
+     * Builds a text that tokenizes to exactly tokenCount tokens, including [CLS]
+     * and [SEP]
+     */
+    private String textOfLength(int tokenCount) throws Exception {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < tokenCount - 2; i++) {
+            words.add(WORDS[i % WORDS.length]);
+        }
+
+        // Correct for words the tokenizer does not keep as one token
+        int count = embedder.countTokens(List.of(String.join(" ", words)))[0];
+        while (count != tokenCount && !words.isEmpty()) {
+            if (count > tokenCount) {
+                words.remove(words.size() - 1);
+            } else {
+                words.add(WORDS[words.size() % WORDS.length]);
+            }
+            count = embedder.countTokens(List.of(String.join(" ", words)))[0];
+        }
+        return String.join(" ", words);
+    }
+}
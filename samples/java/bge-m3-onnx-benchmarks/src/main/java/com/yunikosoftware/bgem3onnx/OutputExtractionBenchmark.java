@@ -0,0 +1,76 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extracting one text's embeddings from batched model outputs held in direct
+ * buffers, as returned by ORT: dense_embeddings [batch, 1024], sparse_weights
+ * [batch, seqLen, 1] and colbert_vectors [batch, seqLen - 1, 1024]. The last row
+ * of the batch is extracted so that row offsets are exercised.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputExtractionBenchmark {
+    @Param({ "8" })
+    public int batchSize;
+
+    @Param({ "16", "128", "512" })
+    public int seqLength;
+
+    private int row;
+    private int[] tokenIds;
+    private FloatBuffer denseOutput;
+    private FloatBuffer sparseOutput;
+    private FloatBuffer colbertOutput;
+    private long[] denseShape;
+    private long[] sparseShape;
+    private long[] colbertShape;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int hidden = SyntheticOutputs.HIDDEN_SIZE;
+        row = batchSize - 1;
+        tokenIds = SyntheticOutputs.tokenIds(random, seqLength);
+
+        denseShape = new long[] { batchSize, hidden };
+        sparseShape = new long[] { batchSize, seqLength, 1 };
+        colbertShape = new long[] { batchSize, seqLength - 1, hidden };
+        denseOutput = SyntheticOutputs.tensor(random, batchSize * hidden);
+        sparseOutput = SyntheticOutputs.tensor(random, batchSize * seqLength);
+        colbertOutput = SyntheticOutputs.tensor(random, batchSize * (seqLength - 1) * hidden);
+    }
+
+    @Benchmark
+    public float[] extractDense() {
+        return M3OutputExtractor.extractDense(denseOutput, denseShape, row);
+    }
+
+    @Benchmark
+    public M3SparseVector extractSparseWeights() {
+        return M3OutputExtractor.extractSparseWeights(sparseOutput, sparseShape, row, tokenIds);
+    }
+
+    @Benchmark
+    public M3ColBertMatrix extractColBertVectors() {
+        return M3OutputExtractor.extractColBertVectors(colbertOutput, colbertShape, row, seqLength,
+                tokenIds.length);
+    }
+}
@@ -0,0 +1,80 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring a query against one document with each embedding type: dense dot
+ * product, sparse lexical match and ColBERT MaxSim. The query has 32 tokens, the
+ * document has the given number of tokens. Scoring is expected not to allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+    private static final int QUERY_TOKENS = 32;
+
+    @Param({ "32", "128", "512" })
+    public int documentTokens;
+
+    private float[] queryDense;
+    private float[] documentDense;
+    private M3SparseVector querySparse;
+    private M3SparseVector documentSparse;
+    private M3ColBertMatrix queryColBert;
+    private M3ColBertMatrix documentColBert;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int hidden = SyntheticOutputs.HIDDEN_SIZE;
+        queryDense = SyntheticOutputs.unitVector(random, hidden);
+        documentDense = SyntheticOutputs.unitVector(random, hidden);
+
+        // Let the query share half of its tokens with the document so the merge
+        // join finds matches
+        int[] documentIds = SyntheticOutputs.tokenIds(random, documentTokens);
+        int[] queryIds = SyntheticOutputs.tokenIds(random, QUERY_TOKENS);
+        for (int i = 1; i < QUERY_TOKENS - 1; i += 2) {
+            queryIds[i] = documentIds[1 + random.nextInt(documentTokens - 2)];
+        }
+        querySparse = SyntheticOutputs.sparseVector(random, queryIds);
+        documentSparse = SyntheticOutputs.sparseVector(random, documentIds);
+
+        queryColBert = SyntheticOutputs.colBertMatrix(random, QUERY_TOKENS - 1, hidden);
+        documentColBert = SyntheticOutputs.colBertMatrix(random, documentTokens - 1, hidden);
+    }
+
+    @Benchmark
+    public double denseDot() {
+        double score = 0;
+        for (int i = 0; i < queryDense.length; i++) {
+            score += queryDense[i] * documentDense[i];
+        }
+        return score;
+    }
+
+    @Benchmark
+    public double sparseDot() {
+        return querySparse.dot(documentSparse);
+    }
+
+    @Benchmark
+    public double colBertMaxSim() {
+        return queryColBert.maxSim(documentColBert);
+    }
+}
@@ -0,0 +1,91 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Deterministic stand-ins for tokenizer and model outputs with the shapes of the
+ * real BGE-M3 model, so the benchmarks run without the ONNX files
+ */
+final class SyntheticOutputs {
+    static final int HIDDEN_SIZE = 1024;
+    static final int VOCABULARY_SIZE = 250002;
+
+    private SyntheticOutputs() {
+    }
+
+    /**
+     * Creates token IDs of one text: [CLS], seqLength - 2 random tokens, [SEP]
+     */
+    static int[] tokenIds(Random random, int seqLength) {
+        int[] tokenIds = new int[seqLength];
+        tokenIds[0] = 0;
+        for (int i = 1; i < seqLength - 1; i++) {
+            // Skip the special tokens 0-3
+            tokenIds[i] = 4 + random.nextInt(VOCABULARY_SIZE - 4);
+        }
+        tokenIds[seqLength - 1] = 2;
+        return tokenIds;
+    }
+
+    /**
+     * Creates a direct buffer of random values in [0, 1), laid out like an ORT
+     * output tensor
+     */
+    static FloatBuffer tensor(Random random, int size) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, random.nextFloat());
+        }
+        return buffer;
+    }
+
+    /**
+     * Creates a unit-length vector of the given dimension
+     */
+    static float[] unitVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < dimension; i++) {
+            vector[i] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+
+    /**
+     * Creates ColBERT vectors: rows unit-length vectors in one row-major matrix
+     */
+    static M3ColBertMatrix colBertMatrix(Random random, int rows, int dimension) {
+        float[] data = new float[rows * dimension];
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(unitVector(random, dimension), 0, data, row * dimension, dimension);
+        }
+        return new M3ColBertMatrix(data, rows, dimension);
+    }
+
+    /**
+     * Creates sparse weights over the non-special tokens of a text
+     */
+    static M3SparseVector sparseVector(Random random, int[] tokenIds) {
+        float[] weights = new float[tokenIds.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = tokenIds[i] > 3 ? random.nextFloat() : 0;
+        }
+        return M3SparseVector.of(tokenIds, weights, tokenIds.length);
+    }
+
+    /**
+     * Creates a full embedding output of one text with seqLength tokens
+     */
+    static M3EmbeddingOutput output(Random random, int seqLength) {
+        int[] tokenIds = tokenIds(random, seqLength);
+        return new M3EmbeddingOutput(unitVector(random, HIDDEN_SIZE), sparseVector(random, tokenIds),
+                colBertMatrix(random, seqLength - 1, HIDDEN_SIZE), tokenIds);
+    }
+}
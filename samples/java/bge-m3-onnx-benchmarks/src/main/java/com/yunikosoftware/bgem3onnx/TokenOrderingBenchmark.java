@@ -0,0 +1,86 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting the flat tokenizer output into per-text token arrays. The tokenizer
+ * normally emits tokens in order (the copy path); shuffled input exercises the
+ * sorting path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenOrderingBenchmark {
+    @Param({ "1", "32" })
+    public int batchSize;
+
+    @Param({ "16", "128", "512" })
+    public int seqLength;
+
+    @Param({ "true", "false" })
+    public boolean ordered;
+
+    private int[] tokens;
+    private int[] instanceIndices;
+    private int[] tokenIndices;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int tokenCount = batchSize * seqLength;
+        tokens = new int[tokenCount];
+        instanceIndices = new int[tokenCount];
+        tokenIndices = new int[tokenCount];
+
+        for (int text = 0; text < batchSize; text++) {
+            int[] ids = SyntheticOutputs.tokenIds(random, seqLength);
+            int offset = text * seqLength;
+            for (int i = 0; i < seqLength; i++) {
+                tokens[offset + i] = ids[i];
+                instanceIndices[offset + i] = text;
+                tokenIndices[offset + i] = i;
+            }
+
+            if (!ordered) {
+                // Shuffle tokens and their indices together within the text
+                for (int i = seqLength - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    swap(tokens, offset + i, offset + j);
+                    swap(tokenIndices, offset + i, offset + j);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<int[]> demultiplexTokens() {
+        return OnnxTokenizer.demultiplexTokens(tokens, instanceIndices, tokenIndices, batchSize);
+    }
+
+    @Benchmark
+    public int[] orderTokens() {
+        return OnnxTokenizer.orderTokens(tokens, tokenIndices, 0, seqLength);
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,183 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups tokenized texts of similar length into batches so that little compute
+ * is spent on padding. Texts are sorted by token count and batches are closed
+ * once they reach the maximum batch size or the padded token budget.
+ */
+public class M3BatchPlanner {
+    private final int maxBatchSize;
+    private final int maxBatchTokens;
+    private final AtomicLong totalTokens = new AtomicLong();
+    private final AtomicLong totalPaddedTokens = new AtomicLong();
+
+    /**
+     * Creates a planner with default limits (32 texts, 16384 padded tokens per
+     * batch)
+     */
+    public M3BatchPlanner() {
+        this(32, 16384);
+    }
+
+    /**
+     * Creates a planner with the given limits
+     *
+     * @param maxBatchSize   Maximum number of texts per batch
+     * @param maxBatchTokens Maximum number of padded tokens (batch size times
+     *                       longest sequence) per batch. A single text longer
+     *                       than this is placed in a batch of its own.
+     */
+    public M3BatchPlanner(int maxBatchSize, int maxBatchTokens) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        if (maxBatchTokens < 1) {
+            throw new IllegalArgumentException("maxBatchTokens must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchTokens = maxBatchTokens;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxBatchTokens() {
+        return maxBatchTokens;
+    }
+
+    /**
+     * Plans batches for texts with the given token counts
+     *
+     * @param tokenCounts Token count of each text, in the caller's order
+     * @return The batch plan referring to texts by their index in tokenCounts
+     */
+    public BatchPlan plan(int[] tokenCounts) {
+        // Sort indices by token count so neighbouring texts have similar lengths. Each
+        // key packs the count above the index, so sorting primitive keys keeps equal
+        // counts in input order without boxing the indices.
+        long[] order = new long[tokenCounts.length];
+        for (int i = 0; i < tokenCounts.length; i++) {
+            order[i] = ((long) tokenCounts[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        List<int[]> batches = new ArrayList<>();
+        int batchStart = 0;
+        long tokens = 0;
+        long paddedTokens = 0;
+        int currentMaxLength = 0;
+
+        for (int position = 0; position < order.length; position++) {
+            int length = (int) (order[position] >>> 32);
+            int batchCount = position - batchStart;
+            tokens += length;
+
+            // Sorted ascending, so the new text sets the padded length of the batch
+            long paddedSize = (long) (batchCount + 1) * Math.max(currentMaxLength, length);
+            if (batchCount > 0 && (batchCount >= maxBatchSize || paddedSize > maxBatchTokens)) {
+                batches.add(indicesOf(order, batchStart, position));
+                paddedTokens += (long) batchCount * currentMaxLength;
+                batchStart = position;
+                currentMaxLength = 0;
+            }
+
+            currentMaxLength = Math.max(currentMaxLength, length);
+        }
+
+        if (batchStart < order.length) {
+            batches.add(indicesOf(order, batchStart, order.length));
+            paddedTokens += (long) (order.length - batchStart) * currentMaxLength;
+        }
+
+        totalTokens.addAndGet(tokens);
+        totalPaddedTokens.addAndGet(paddedTokens);
+
+        return new BatchPlan(batches, tokens, paddedTokens);
+    }
+
+    /**
+     * Gets the fraction of padded positions that were padding, across all plans
+     * made by this planner
+     *
+     * @return Padding ratio between 0 and 1
+     */
+    public double getPaddingRatio() {
+        return paddingRatio(totalTokens.get(), totalPaddedTokens.get());
+    }
+
+    /**
+     * Gets the total number of real tokens planned so far
+     */
+    public long getTotalTokens() {
+        return totalTokens.get();
+    }
+
+    /**
+     * Gets the total number of padded positions (real tokens plus padding) planned
+     * so far
+     */
+    public long getTotalPaddedTokens() {
+        return totalPaddedTokens.get();
+    }
+
+    private static double paddingRatio(long tokens, long paddedTokens) {
+        return paddedTokens == 0 ? 0 : (double) (paddedTokens - tokens) / paddedTokens;
+    }
+
+    /**
+     * Unpacks the text indices of a range of sort keys
+     */
+    private static int[] indicesOf(long[] order, int from, int to) {
+        int[] indices = new int[to - from];
+        for (int i = from; i < to; i++) {
+            indices[i - from] = (int) order[i];
+        }
+        return indices;
+    }
+
+    /**
+     * Result of planning: batches of text indices plus padding statistics
+     */
+    public static class BatchPlan {
+        private final List<int[]> batches;
+        private final long tokens;
+        private final long paddedTokens;
+
+        public BatchPlan(List<int[]> batches, long tokens, long paddedTokens) {
+            this.batches = Collections.unmodifiableList(batches);
+            this.tokens = tokens;
+            this.paddedTokens = paddedTokens;
+        }
+
+        /**
+         * Gets the planned batches, each holding indices into the caller's input
+         */
+        public List<int[]> getBatches() {
+            return batches;
+        }
+
+        public long getTokens() {
+            return tokens;
+        }
+
+        public long getPaddedTokens() {
+            return paddedTokens;
+        }
+
+        /**
+         * Gets the fraction of padded positions in this plan that are padding
+         *
+         * @return Padding ratio between 0 and 1
+         */
+        public double getPaddingRatio() {
+            return paddingRatio(tokens, paddedTokens);
+        }
+    }
+}
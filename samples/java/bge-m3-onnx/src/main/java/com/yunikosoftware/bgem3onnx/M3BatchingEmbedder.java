@@ -0,0 +1,297 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrently submitted texts into micro-batches and runs each batch
+ * with a single model call. A batch is dispatched as soon as it reaches the
+ * maximum batch size or the oldest request has waited for the maximum wait
+ * time, so each request trades at most that wait for higher throughput.
+ * <p>
+ * In front of an {@link M3EmbedderPool}, formed batches are handed to the pool
+ * asynchronously so that up to one batch per pooled session runs at a time;
+ * while every session is busy, new requests keep collecting into the next
+ * batch.
+ */
+public class M3BatchingEmbedder implements AutoCloseable {
+    private final M3EmbeddingGenerator embedder;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+    private final Semaphore batchPermits;
+    // Runs batches when more than one may be in flight, null to run them on the worker
+    private final ExecutorService batchExecutor;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    /**
+     * Initializes a new instance of the M3BatchingEmbedder class with a maximum
+     * batch size of 32 and a maximum wait of 2 ms. Batches run one at a time, or
+     * one per session in front of an {@link M3EmbedderPool}.
+     *
+     * @param embedder The embedder or embedder pool that runs the batches. It is
+     *                 closed together with this instance.
+     */
+    public M3BatchingEmbedder(M3EmbeddingGenerator embedder) {
+        this(embedder, 32, Duration.ofMillis(2));
+    }
+
+    /**
+     * Initializes a new instance of the M3BatchingEmbedder class
+     *
+     * @param embedder     The embedder or embedder pool that runs the batches. It is
+     *                     closed together with this instance.
+     * @param maxBatchSize Maximum number of texts per model call
+     * @param maxWait      Maximum time the first request of a batch waits for more
+     *                     requests to arrive
+     */
+    public M3BatchingEmbedder(M3EmbeddingGenerator embedder, int maxBatchSize, Duration maxWait) {
+        this(embedder, maxBatchSize, maxWait,
+                embedder instanceof M3EmbedderPool pool ? pool.getPoolSize() : 1);
+    }
+
+    /**
+     * Initializes a new instance of the M3BatchingEmbedder class
+     *
+     * @param embedder             The embedder or embedder pool that runs the
+     *                             batches. It is closed together with this
+     *                             instance.
+     * @param maxBatchSize         Maximum number of texts per model call
+     * @param maxWait              Maximum time the first request of a batch waits
+     *                             for more requests to arrive
+     * @param maxConcurrentBatches Maximum number of batches running at the same
+     *                             time. Only values up to the number of sessions
+     *                             behind the embedder pay off.
+     */
+    public M3BatchingEmbedder(M3EmbeddingGenerator embedder, int maxBatchSize, Duration maxWait,
+            int maxConcurrentBatches) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be positive");
+        }
+        this.embedder = embedder;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.batchPermits = new Semaphore(maxConcurrentBatches);
+        this.batchExecutor = maxConcurrentBatches > 1 ? createBatchExecutor(maxConcurrentBatches) : null;
+
+        this.worker = new Thread(this::runLoop, "m3-batching-embedder");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Submits a text for embedding with all output types
+     *
+     * @param text The input text
+     * @return A future completed with the embedding output once the batch containing
+     *         the text has run, or completed exceptionally if inference fails
+     */
+    public CompletableFuture<M3EmbeddingOutput> submit(String text) {
+        return submit(text, M3OutputType.ALL);
+    }
+
+    /**
+     * Submits a text for embedding with the requested output types. Requests with
+     * different output types are collected together but run as separate model calls.
+     *
+     * @param text        The input text
+     * @param outputTypes The embedding types to compute
+     * @return A future completed with the embedding output once the batch containing
+     *         the text has run, or completed exceptionally if inference fails
+     */
+    public CompletableFuture<M3EmbeddingOutput> submit(String text, Set<M3OutputType> outputTypes) {
+        PendingRequest request = new PendingRequest(text, outputTypes);
+        if (closed) {
+            request.future.completeExceptionally(closedException());
+            return request.future;
+        }
+
+        queue.add(request);
+
+        // close() may have drained the queue between the check above and the add
+        if (closed && queue.remove(request)) {
+            request.future.completeExceptionally(closedException());
+        }
+
+        return request.future;
+    }
+
+    /**
+     * Gets the number of requests waiting to be batched
+     *
+     * @return The queue length
+     */
+    public int getQueuedRequestCount() {
+        return queue.size();
+    }
+
+    private void runLoop() {
+        List<PendingRequest> batch = new ArrayList<>(maxBatchSize);
+
+        try {
+            while (!closed) {
+                try {
+                    // Wait for a free slot first, requests arriving meanwhile join the batch
+                    batchPermits.acquire();
+                    batch.add(queue.take());
+                    long deadline = System.nanoTime() + maxWaitNanos;
+
+                    while (batch.size() < maxBatchSize) {
+                        // Take everything that is already queued before waiting for more
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatchSize || remaining <= 0) {
+                            break;
+                        }
+
+                        PendingRequest next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    dispatchBatch(batch);
+                    batch = new ArrayList<>(maxBatchSize);
+                } catch (InterruptedException e) {
+                    // Interrupted by close() while collecting a batch
+                    failAll(batch, closedException());
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            // The batch being collected when the worker died
+            failAll(batch, e);
+            throw e;
+        } finally {
+            // Without the worker nothing completes queued or later requests
+            closed = true;
+            drainQueue();
+        }
+    }
+
+    /**
+     * Runs a batch on the batch executor, or on the worker when batches run one at
+     * a time, and frees its slot afterwards
+     */
+    private void dispatchBatch(List<PendingRequest> batch) {
+        if (batchExecutor == null) {
+            try {
+                runBatch(batch);
+            } finally {
+                batchPermits.release();
+            }
+            return;
+        }
+
+        try {
+            batchExecutor.execute(() -> {
+                try {
+                    runBatch(batch);
+                } finally {
+                    batchPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batchPermits.release();
+            failAll(batch, closedException());
+        }
+    }
+
+    private void runBatch(List<PendingRequest> batch) {
+        // One model call per distinct set of requested outputs
+        Map<Set<M3OutputType>, List<PendingRequest>> requestsByOutputTypes = new HashMap<>();
+        for (PendingRequest request : batch) {
+            requestsByOutputTypes.computeIfAbsent(request.outputTypes, key -> new ArrayList<>()).add(request);
+        }
+
+        for (Map.Entry<Set<M3OutputType>, List<PendingRequest>> entry : requestsByOutputTypes.entrySet()) {
+            List<PendingRequest> requests = entry.getValue();
+            List<String> texts = new ArrayList<>(requests.size());
+            for (PendingRequest request : requests) {
+                texts.add(request.text);
+            }
+
+            try {
+                List<M3EmbeddingOutput> outputs = embedder.generateEmbeddings(texts, entry.getKey());
+                for (int i = 0; i < requests.size(); i++) {
+                    requests.get(i).future.complete(outputs.get(i));
+                }
+            } catch (Throwable e) {
+                // Errors are handed to the callers too, the worker keeps serving
+                failAll(requests, e);
+            }
+        }
+    }
+
+    private static void failAll(List<PendingRequest> requests, Throwable e) {
+        for (PendingRequest request : requests) {
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    private void drainQueue() {
+        PendingRequest request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(closedException());
+        }
+    }
+
+    private static ExecutorService createBatchExecutor(int threadCount) {
+        return Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "m3-batching-embedder-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("M3BatchingEmbedder is closed");
+    }
+
+    /**
+     * A submitted text together with the future to complete
+     */
+    private static class PendingRequest {
+        public final String text;
+        public final Set<M3OutputType> outputTypes;
+        public final CompletableFuture<M3EmbeddingOutput> future = new CompletableFuture<>();
+
+        public PendingRequest(String text, Set<M3OutputType> outputTypes) {
+            this.text = text;
+            this.outputTypes = outputTypes;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        worker.interrupt();
+        worker.join();
+        drainQueue();
+
+        // Let the batches already handed to the embedder finish
+        if (batchExecutor != null) {
+            batchExecutor.shutdown();
+            batchExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        embedder.close();
+    }
+}
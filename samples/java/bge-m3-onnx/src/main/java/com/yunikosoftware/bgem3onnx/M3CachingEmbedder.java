@@ -0,0 +1,290 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches embedding outputs in memory in front of another embedding generator.
+ * Outputs are keyed by text and requested output types, so a dense-only result
+ * never answers a request for all types. The least recently used outputs are
+ * evicted once the cache exceeds its entry or byte limit. An optional
+ * {@link M3PersistentEmbeddingCache} acts as a second tier: memory misses are
+ * looked up on disk before running the model, and computed outputs are stored in
+ * both tiers.
+ * <p>
+ * Cached outputs are shared between callers and must not be modified.
+ */
+public class M3CachingEmbedder implements M3EmbeddingGenerator {
+    private final M3EmbeddingGenerator embedder;
+    private final M3LruCache<CacheKey, M3EmbeddingOutput> cache;
+    private final M3PersistentEmbeddingCache persistentCache;
+
+    /**
+     * Initializes a new instance of the M3CachingEmbedder class bounded by entry
+     * count
+     * 
+     * @param embedder   The embedder or embedder pool computing cache misses. It is
+     *                   closed together with this instance.
+     * @param maxEntries Maximum number of cached outputs
+     */
+    public M3CachingEmbedder(M3EmbeddingGenerator embedder, long maxEntries) {
+        this(embedder, maxEntries, 0);
+    }
+
+    /**
+     * Initializes a new instance of the M3CachingEmbedder class
+     * 
+     * @param embedder   The embedder or embedder pool computing cache misses. It is
+     *                   closed together with this instance.
+     * @param maxEntries Maximum number of cached outputs, or 0 for no entry limit
+     * @param maxBytes   Maximum estimated heap size of the cached outputs in bytes,
+     *                   or 0 for no size limit
+     */
+    public M3CachingEmbedder(M3EmbeddingGenerator embedder, long maxEntries, long maxBytes) {
+        this(embedder, maxEntries, maxBytes, null);
+    }
+
+    /**
+     * Initializes a new instance of the M3CachingEmbedder class with a persistent
+     * second tier
+     * 
+     * @param embedder        The embedder or embedder pool computing cache misses.
+     *                        It is closed together with this instance.
+     * @param maxEntries      Maximum number of outputs cached in memory, or 0 for
+     *                        no entry limit
+     * @param maxBytes        Maximum estimated heap size of the outputs cached in
+     *                        memory in bytes, or 0 for no size limit
+     * @param persistentCache Disk cache consulted on memory misses, or null. It is
+     *                        not closed by this instance.
+     */
+    public M3CachingEmbedder(M3EmbeddingGenerator embedder, long maxEntries, long maxBytes,
+            M3PersistentEmbeddingCache persistentCache) {
+        this.embedder = embedder;
+        this.cache = new M3LruCache<>(maxEntries, maxBytes, M3CachingEmbedder::estimateBytes);
+        this.persistentCache = persistentCache;
+    }
+
+    @Override
+    public M3EmbeddingOutput generateEmbeddings(String text, Set<M3OutputType> outputTypes) throws OrtException {
+        CacheKey key = new CacheKey(text, copyOf(outputTypes));
+        M3EmbeddingOutput output = lookup(key);
+        if (output == null) {
+            output = embedder.generateEmbeddings(text, outputTypes);
+            store(key, output);
+        }
+        return output;
+    }
+
+    /**
+     * Generates the requested embedding types for a batch of texts. Cached texts
+     * are answered from the cache and all missing texts are computed with a single
+     * call to the underlying embedder.
+     * 
+     * @param texts       The input texts
+     * @param outputTypes The embedding types to compute
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    @Override
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        Set<M3OutputType> cachedTypes = copyOf(outputTypes);
+        M3EmbeddingOutput[] outputs = new M3EmbeddingOutput[texts.size()];
+
+        // Texts missing from the cache, each computed once even if repeated in the batch
+        Map<String, List<Integer>> missingPositions = new HashMap<>();
+        List<String> missingTexts = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            List<Integer> positions = missingPositions.get(text);
+            if (positions != null) {
+                positions.add(i);
+                continue;
+            }
+
+            outputs[i] = lookup(new CacheKey(text, cachedTypes));
+            if (outputs[i] == null) {
+                positions = new ArrayList<>();
+                positions.add(i);
+                missingPositions.put(text, positions);
+                missingTexts.add(text);
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            List<M3EmbeddingOutput> computed = embedder.generateEmbeddings(missingTexts, outputTypes);
+            for (int i = 0; i < missingTexts.size(); i++) {
+                String text = missingTexts.get(i);
+                M3EmbeddingOutput output = computed.get(i);
+                store(new CacheKey(text, cachedTypes), output);
+                for (int position : missingPositions.get(text)) {
+                    outputs[position] = output;
+                }
+            }
+        }
+
+        List<M3EmbeddingOutput> result = new ArrayList<>(outputs.length);
+        Collections.addAll(result, outputs);
+        return result;
+    }
+
+    /**
+     * Gets the number of lookups answered from memory
+     */
+    public long getHitCount() {
+        return cache.hitCount();
+    }
+
+    /**
+     * Gets the number of lookups not found in memory. With a persistent cache,
+     * some of these are answered from disk (see
+     * {@link M3PersistentEmbeddingCache#getHitCount()}).
+     */
+    public long getMissCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * Gets the number of outputs evicted to stay within the limits
+     */
+    public long getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * Gets the fraction of lookups answered from memory
+     * 
+     * @return Hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = cache.hitCount();
+        long total = hits + cache.missCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Gets the number of cached outputs
+     */
+    public long getSize() {
+        return cache.size();
+    }
+
+    /**
+     * Gets the estimated heap size of the cached outputs in bytes
+     */
+    public long getSizeInBytes() {
+        return cache.weight();
+    }
+
+    /**
+     * Removes all cached outputs
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Looks up an output in memory, then in the persistent cache
+     */
+    private M3EmbeddingOutput lookup(CacheKey key) {
+        M3EmbeddingOutput output = cache.get(key);
+        if (output == null && persistentCache != null) {
+            M3EmbeddingCodec.View stored = persistentCache.get(key.text, key.outputTypes);
+            if (stored != null) {
+                output = stored.toOutput();
+                cache.put(key, output);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Stores a computed output in memory and in the persistent cache
+     */
+    private void store(CacheKey key, M3EmbeddingOutput output) {
+        cache.put(key, output);
+        if (persistentCache != null) {
+            try {
+                persistentCache.put(key.text, key.outputTypes, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write to the persistent embedding cache", e);
+            }
+        }
+    }
+
+    /**
+     * Copies the output types so that later changes to the caller's set cannot
+     * alter cache keys
+     */
+    private static Set<M3OutputType> copyOf(Set<M3OutputType> outputTypes) {
+        Set<M3OutputType> copy = EnumSet.noneOf(M3OutputType.class);
+        copy.addAll(outputTypes);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    /**
+     * Estimates the heap size of a cache entry from its arrays and text
+     */
+    static long estimateBytes(CacheKey key, M3EmbeddingOutput output) {
+        // Object headers and references of the key, output and map node
+        long bytes = 128 + 2L * key.text.length();
+        if (output.getDenseEmbedding() != null) {
+            bytes += 16 + 4L * output.getDenseEmbedding().length;
+        }
+        if (output.getSparseVector() != null) {
+            bytes += 48 + 8L * output.getSparseVector().size();
+        }
+        if (output.getColBertMatrix() != null) {
+            bytes += 32 + 4L * output.getColBertMatrix().getData().length;
+        }
+        if (output.getTokenIds() != null) {
+            bytes += 16 + 4L * output.getTokenIds().length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Cache key of a text and the output types requested for it
+     */
+    static final class CacheKey {
+        private final String text;
+        private final Set<M3OutputType> outputTypes;
+        private final int hash;
+
+        CacheKey(String text, Set<M3OutputType> outputTypes) {
+            this.text = text;
+            this.outputTypes = outputTypes;
+            this.hash = 31 * text.hashCode() + outputTypes.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return hash == other.hash && text.equals(other.text) && outputTypes.equals(other.outputTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        embedder.close();
+    }
+}
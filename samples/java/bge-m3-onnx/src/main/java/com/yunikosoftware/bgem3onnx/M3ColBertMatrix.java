@@ -0,0 +1,162 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.nio.FloatBuffer;
+
+/**
+ * ColBERT vectors stored row-major in a single contiguous float array, one row
+ * of {@code dimension} values per token
+ */
+public class M3ColBertMatrix {
+    private final float[] data;
+    private final int rowCount;
+    private final int dimension;
+
+    /**
+     * Initializes a new instance of the M3ColBertMatrix class over existing data
+     * 
+     * @param data      Row-major values, at least rowCount * dimension long. The
+     *                  array is used as is, not copied.
+     * @param rowCount  Number of vectors (tokens)
+     * @param dimension Length of each vector
+     */
+    public M3ColBertMatrix(float[] data, int rowCount, int dimension) {
+        if (rowCount < 0 || dimension < 0 || (long) rowCount * dimension > data.length) {
+            throw new IllegalArgumentException("Matrix of " + rowCount + "x" + dimension
+                    + " does not fit in " + data.length + " values");
+        }
+        this.data = data;
+        this.rowCount = rowCount;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Creates a matrix by copying nested per-token arrays
+     * 
+     * @param vectors ColBERT vectors, all of the same length
+     * @return The matrix
+     */
+    public static M3ColBertMatrix fromArray(float[][] vectors) {
+        int dimension = vectors.length > 0 ? vectors[0].length : 0;
+        float[] data = new float[vectors.length * dimension];
+        for (int i = 0; i < vectors.length; i++) {
+            if (vectors[i].length != dimension) {
+                throw new IllegalArgumentException("ColBERT vectors must all have the same length");
+            }
+            System.arraycopy(vectors[i], 0, data, i * dimension, dimension);
+        }
+        return new M3ColBertMatrix(data, vectors.length, dimension);
+    }
+
+    /**
+     * Gets the number of vectors (tokens)
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the length of each vector
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Gets the backing row-major array. The array is shared and must not be
+     * modified.
+     * 
+     * @return Array of rowCount * dimension values (possibly longer)
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * Gets a single value
+     * 
+     * @param row    The vector index
+     * @param column The position within the vector
+     * @return The value
+     */
+    public float get(int row, int column) {
+        return data[row * dimension + column];
+    }
+
+    /**
+     * Gets a read-only view of one vector without copying it
+     * 
+     * @param row The vector index
+     * @return Buffer positioned at the start of the vector, limited to its length
+     */
+    public FloatBuffer getRow(int row) {
+        checkRow(row);
+        return FloatBuffer.wrap(data, row * dimension, dimension).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies one vector into a new array
+     * 
+     * @param row The vector index
+     * @return The vector
+     */
+    public float[] copyRow(int row) {
+        checkRow(row);
+        float[] vector = new float[dimension];
+        System.arraycopy(data, row * dimension, vector, 0, dimension);
+        return vector;
+    }
+
+    /**
+     * Computes the late-interaction (MaxSim) score of this matrix as the query
+     * against a document: for each query vector the best dot product with any
+     * document vector, averaged over the query vectors
+     * 
+     * @param document The document matrix
+     * @return The ColBERT score, or 0 if either matrix is empty
+     */
+    public double maxSim(M3ColBertMatrix document) {
+        if (document.dimension != dimension) {
+            throw new IllegalArgumentException("ColBERT dimensions differ: " + dimension + " and " + document.dimension);
+        }
+        if (rowCount == 0 || document.rowCount == 0) {
+            return 0;
+        }
+
+        float[] documentData = document.data;
+        double score = 0;
+        for (int q = 0; q < rowCount; q++) {
+            int queryOffset = q * dimension;
+            float best = Float.NEGATIVE_INFINITY;
+            for (int d = 0; d < document.rowCount; d++) {
+                int documentOffset = d * dimension;
+                float dot = 0;
+                for (int k = 0; k < dimension; k++) {
+                    dot += data[queryOffset + k] * documentData[documentOffset + k];
+                }
+                best = Math.max(best, dot);
+            }
+            score += best;
+        }
+
+        return score / rowCount;
+    }
+
+    /**
+     * Copies the matrix into nested per-token arrays
+     * 
+     * @return Array of ColBERT vectors
+     */
+    public float[][] toArray() {
+        float[][] vectors = new float[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            vectors[i] = copyRow(i);
+        }
+        return vectors;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of range for " + rowCount + " rows");
+        }
+    }
+}
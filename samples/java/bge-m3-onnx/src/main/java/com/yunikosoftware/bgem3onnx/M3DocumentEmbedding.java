@@ -0,0 +1,144 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embeddings of a long document encoded as overlapping token windows. Holds the
+ * output of each window (chunk) together with its token range, plus
+ * document-level values pooled from the chunks: a length-weighted mean of the
+ * chunk dense embeddings and the maximum weight of each token over all chunk
+ * sparse weights.
+ */
+public class M3DocumentEmbedding {
+    private final List<M3EmbeddingOutput> chunks;
+    private final int[] chunkStarts;
+    private final int[] chunkEnds;
+    private final float[] denseEmbedding;
+    private final M3SparseVector sparseVector;
+
+    /**
+     * Creates a new M3DocumentEmbedding instance and pools the document-level
+     * embeddings from the chunks
+     *
+     * @param chunks      Output of each chunk, in document order
+     * @param chunkStarts First content token of each chunk in the document
+     * @param chunkEnds   End (exclusive) content token of each chunk in the
+     *                    document
+     */
+    public M3DocumentEmbedding(List<M3EmbeddingOutput> chunks, int[] chunkStarts, int[] chunkEnds) {
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("A document has at least one chunk");
+        }
+        if (chunkStarts.length != chunks.size() || chunkEnds.length != chunks.size()) {
+            throw new IllegalArgumentException("Expected a start and end token for each of the " + chunks.size()
+                    + " chunks");
+        }
+
+        this.chunks = Collections.unmodifiableList(chunks);
+        this.chunkStarts = chunkStarts;
+        this.chunkEnds = chunkEnds;
+        this.denseEmbedding = poolDense(chunks, chunkStarts, chunkEnds);
+        this.sparseVector = mergeSparse(chunks);
+    }
+
+    /**
+     * Gets the number of chunks
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Gets the output of each chunk, in document order
+     *
+     * @return Read-only list of chunk outputs
+     */
+    public List<M3EmbeddingOutput> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Gets the first token of a chunk, counted in the document's tokens without
+     * [CLS] and [SEP]
+     */
+    public int getChunkStart(int chunk) {
+        return chunkStarts[chunk];
+    }
+
+    /**
+     * Gets the end (exclusive) token of a chunk, counted in the document's tokens
+     * without [CLS] and [SEP]
+     */
+    public int getChunkEnd(int chunk) {
+        return chunkEnds[chunk];
+    }
+
+    /**
+     * Gets the document dense embedding: the mean of the chunk dense embeddings
+     * weighted by chunk length, normalized to unit length
+     *
+     * @return Dense embedding as float array, or null if not requested
+     */
+    public float[] getDenseEmbedding() {
+        return denseEmbedding;
+    }
+
+    /**
+     * Gets the document sparse weights: the maximum weight of each token over all
+     * chunks
+     *
+     * @return The sparse vector, or null if not requested
+     */
+    public M3SparseVector getSparseVector() {
+        return sparseVector;
+    }
+
+    /**
+     * Gets the document sparse weights as a map
+     *
+     * @return Read-only map of token ID to weight, or null if not requested
+     */
+    public Map<Integer, Float> getSparseWeights() {
+        return sparseVector != null ? sparseVector.asMap() : null;
+    }
+
+    private static float[] poolDense(List<M3EmbeddingOutput> chunks, int[] chunkStarts, int[] chunkEnds) {
+        if (chunks.get(0).getDenseEmbedding() == null) {
+            return null;
+        }
+
+        float[] pooled = new float[chunks.get(0).getDenseEmbedding().length];
+        for (int i = 0; i < chunks.size(); i++) {
+            float[] dense = chunks.get(i).getDenseEmbedding();
+            // A short trailing chunk should not count as much as a full window
+            M3Vectors.addScaled(pooled, dense, 0, Math.max(1, chunkEnds[i] - chunkStarts[i]));
+        }
+        M3Vectors.normalize(pooled);
+        return pooled;
+    }
+
+    private static M3SparseVector mergeSparse(List<M3EmbeddingOutput> chunks) {
+        if (chunks.get(0).getSparseVector() == null) {
+            return null;
+        }
+
+        int count = 0;
+        for (M3EmbeddingOutput chunk : chunks) {
+            count += chunk.getSparseVector().size();
+        }
+
+        // Concatenate all entries, M3SparseVector.of keeps the maximum per token ID
+        int[] tokenIds = new int[count];
+        float[] weights = new float[count];
+        int offset = 0;
+        for (M3EmbeddingOutput chunk : chunks) {
+            M3SparseVector vector = chunk.getSparseVector();
+            System.arraycopy(vector.getTokenIds(), 0, tokenIds, offset, vector.size());
+            System.arraycopy(vector.getWeights(), 0, weights, offset, vector.size());
+            offset += vector.size();
+        }
+        return M3SparseVector.of(tokenIds, weights, count);
+    }
+}
@@ -1,17 +1,33 @@
 package com.yunikosoftware.bgem3onnx;
 
 import ai.onnxruntime.*;
-import ai.onnxruntime.extensions.OrtxPackage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 /**
  * Provides functionality to generate embeddings using ONNX BGE-M3 model with multi-provider support
  */
-public class M3Embedder implements AutoCloseable {
-    private final OrtSession tokenizerSession;
+public class M3Embedder implements M3EmbeddingGenerator {
+    private final M3Tokenizer tokenizer;
+    private final boolean ownsTokenizer;
     private final OrtSession modelSession;
-    private final Set<Integer> specialTokenIds = Set.of(0, 1, 2, 3); // [PAD], [UNK], [CLS], [SEP]
     private final M3EmbedderConfig config;
+    // Largest batch (rows times sequence length) whose buffers are kept for reuse:
+    // 32 texts of 512 tokens, the default M3BatchPlanner token budget. Buffers of
+    // bigger batches are dropped once the run's result is closed. The ColBERT
+    // output of such a batch takes 4 KB per token.
+    private static final int MAX_RETAINED_BUFFER_TOKENS = 32 * 512;
+    // Buffers of finished runs. Each run takes its own set and keeps it until its
+    // result is closed, so there are never more sets than results alive.
+    private final Deque<RunBuffers> idleRunBuffers = new ConcurrentLinkedDeque<>();
+    // Fixed last dimension of each model output by M3OutputType ordinal, 0 if dynamic
+    private final int[] outputWidths;
+    private volatile boolean closed;
+    private final M3InputTokenizer inputTokenizer;
 
     /**
      * Initializes a new instance of the M3Embedder class with default CPU provider
@@ -33,17 +49,73 @@ public class M3Embedder implements AutoCloseable {
      * @throws OrtException If there's an error initializing the ONNX sessions
      */
     public M3Embedder(String tokenizerPath, String modelPath, M3EmbedderConfig config) throws OrtException {
+        // Initialize tokenizer, either ONNX Extensions sessions (CPU-only) or the
+        // pure-Java SentencePiece implementation
+        this(M3EmbedderFactory.createTokenizer(tokenizerPath, config), true, modelPath, config);
+    }
+
+    /**
+     * Initializes a new instance of the M3Embedder class with a tokenizer that may
+     * be shared with other embedders. The tokenizer is not closed by this instance.
+     * 
+     * @param tokenizer The tokenizer
+     * @param modelPath Path to the ONNX BGE-M3 model
+     * @param config    Configuration for execution providers and other options
+     * @throws OrtException If there's an error initializing the ONNX session
+     */
+    public M3Embedder(M3Tokenizer tokenizer, String modelPath, M3EmbedderConfig config) throws OrtException {
+        this(tokenizer, false, modelPath, config);
+    }
+
+    /**
+     * Initializes a new instance of the M3Embedder class that shares its input
+     * tokenization, including the token cache, with other embedders
+     */
+    M3Embedder(M3InputTokenizer inputTokenizer, String modelPath, M3EmbedderConfig config) throws OrtException {
+        this(null, false, inputTokenizer, modelPath, config);
+    }
+
+    private M3Embedder(M3Tokenizer tokenizer, boolean ownsTokenizer, String modelPath, M3EmbedderConfig config)
+            throws OrtException {
+        this(tokenizer, ownsTokenizer, createInputTokenizer(tokenizer, ownsTokenizer, config), modelPath, config);
+    }
+
+    private M3Embedder(M3Tokenizer tokenizer, boolean ownsTokenizer, M3InputTokenizer inputTokenizer,
+            String modelPath, M3EmbedderConfig config) throws OrtException {
         this.config = config;
+        this.tokenizer = tokenizer;
+        this.ownsTokenizer = ownsTokenizer;
+        this.inputTokenizer = inputTokenizer;
         OrtEnvironment environment = OrtEnvironment.getEnvironment();
 
-        // Initialize tokenizer session with ONNX Extensions (CPU-only)
-        OrtSession.SessionOptions tokenizerOptions = createSessionOptions(true);
-        tokenizerOptions.registerCustomOpLibrary(OrtxPackage.getLibraryPath());
-        this.tokenizerSession = environment.createSession(tokenizerPath, tokenizerOptions);
-
         // Initialize model session with specified execution provider
-        OrtSession.SessionOptions modelOptions = createSessionOptions(false);
-        this.modelSession = environment.createSession(modelPath, modelOptions);
+        OrtSession.SessionOptions modelOptions = createSessionOptions();
+        OrtSession session = null;
+        try {
+            session = environment.createSession(modelPath, modelOptions);
+            this.outputWidths = readOutputWidths(session);
+        } catch (OrtException e) {
+            if (session != null) {
+                closeQuietly(session);
+            }
+            if (ownsTokenizer) {
+                closeQuietly(tokenizer);
+            }
+            throw e;
+        }
+        this.modelSession = session;
+    }
+
+    private static M3InputTokenizer createInputTokenizer(M3Tokenizer tokenizer, boolean ownsTokenizer,
+            M3EmbedderConfig config) {
+        try {
+            return new M3InputTokenizer(tokenizer, config);
+        } catch (IllegalArgumentException e) {
+            if (ownsTokenizer) {
+                closeQuietly(tokenizer);
+            }
+            throw e;
+        }
     }
 
     /**
@@ -55,21 +127,37 @@ public class M3Embedder implements AutoCloseable {
         return config;
     }
 
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // The original failure is more useful to the caller
+        }
+    }
+
     /**
-     * Creates session options with appropriate execution providers
+     * Creates model session options with appropriate execution providers
      */
-    private OrtSession.SessionOptions createSessionOptions(boolean forTokenizer) throws OrtException {
+    private OrtSession.SessionOptions createSessionOptions() throws OrtException {
         OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
         
         sessionOptions.setMemoryPatternOptimization(config.isEnableMemoryPattern());
         sessionOptions.setCPUArenaAllocator(config.isEnableCpuMemArena());
         sessionOptions.setSessionLogLevel(OrtLoggingLevel.values()[config.getLogSeverityLevel()]);
 
-        // For tokenizer, we use CPU since it involves ONNX Extensions
-        // and string processing which may not be optimized for GPU
-        if (forTokenizer) {
-            return sessionOptions;
+        // Thread settings apply to the main model only, the tokenizer keeps ORT defaults
+        if (config.getIntraOpNumThreads() > 0) {
+            sessionOptions.setIntraOpNumThreads(config.getIntraOpNumThreads());
         }
+        if (config.getInterOpNumThreads() > 0) {
+            sessionOptions.setInterOpNumThreads(config.getInterOpNumThreads());
+        }
+        sessionOptions.setExecutionMode(config.getExecutionMode());
+        sessionOptions.setOptimizationLevel(config.getOptimizationLevel());
+
+        String allowSpinning = config.isAllowSpinning() ? "1" : "0";
+        sessionOptions.addConfigEntry("session.intra_op.allow_spinning", allowSpinning);
+        sessionOptions.addConfigEntry("session.inter_op.allow_spinning", allowSpinning);
 
         // For the main model, apply the requested execution providers
         List<ExecutionProvider> providers = getProviderList();
@@ -121,139 +209,529 @@ public class M3Embedder implements AutoCloseable {
      * @return The full embedding output containing all vector types
      * @throws OrtException If there's an error during inference
      */
+    @Override
     public M3EmbeddingOutput generateEmbeddings(String text) throws OrtException {
-        OrtEnvironment env = OrtEnvironment.getEnvironment();
+        return generateEmbeddings(text, M3OutputType.ALL);
+    }
 
-        // Create input tensor for tokenizer
-        Map<String, OnnxTensor> tokenizerInputs = new HashMap<>();
-        String[] inputArray = new String[] { text };
-
-        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputArray)) {
-            tokenizerInputs.put("inputs", inputTensor);
-
-            // Run tokenizer
-            try (OrtSession.Result tokenizerResults = tokenizerSession.run(tokenizerInputs)) {
-                // Extract tokens and token_indices (order: tokens, instance_indices,
-                // token_indices)
-                int[] tokens = (int[]) tokenizerResults.get(0).getValue();
-                int[] tokenIndices = (int[]) tokenizerResults.get(2).getValue();
-
-                // Convert to input_ids by sorting tokens based on token_indices
-                List<TokenIndexPair> tokenPairs = new ArrayList<>();
-                for (int i = 0; i < tokens.length; i++) {
-                    if (i < tokenIndices.length) {
-                        tokenPairs.add(new TokenIndexPair(tokens[i], tokenIndices[i]));
-                    }
-                }
+    /**
+     * Generates the requested embedding types for the input text. Only the
+     * requested model outputs are fetched and post-processed.
+     * 
+     * @param text        The input text
+     * @param outputTypes The embedding types to compute
+     * @return The embedding output, with null for types that were not requested
+     * @throws OrtException If there's an error during inference
+     */
+    @Override
+    public M3EmbeddingOutput generateEmbeddings(String text, Set<M3OutputType> outputTypes) throws OrtException {
+        return runModel(tokenize(List.of(text)), outputTypes).get(0);
+    }
 
-                // Sort by index and extract ordered tokens
-                tokenPairs.sort(Comparator.comparing(pair -> pair.index));
-                int[] orderedTokens = tokenPairs.stream()
-                        .mapToInt(pair -> pair.token)
-                        .toArray();
+    /**
+     * Generates all embeddings (dense, sparse, ColBERT) for a batch of texts in a
+     * single model call. Sequences are padded to the longest text in the batch and
+     * padding is excluded through the attention mask.
+     * 
+     * @param texts The input texts
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    @Override
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts) throws OrtException {
+        return generateEmbeddings(texts, M3OutputType.ALL);
+    }
 
-                // Create input_ids tensor with shape [1, orderedTokens.length]
-                long[][] inputIds = new long[1][orderedTokens.length];
-                for (int i = 0; i < orderedTokens.length; i++) {
-                    inputIds[0][i] = orderedTokens[i];
-                }
+    /**
+     * Generates the requested embedding types for a batch of texts in a single
+     * model call
+     * 
+     * @param texts       The input texts
+     * @param outputTypes The embedding types to compute
+     * @return The embedding outputs, in the same order as the input texts, with
+     *         null for types that were not requested
+     * @throws OrtException If there's an error during inference
+     */
+    @Override
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-                // Create attention_mask as all 1s with same shape as input_ids
-                long[][] attentionMask = new long[1][orderedTokens.length];
-                Arrays.fill(attentionMask[0], 1);
-
-                // Run the model with the prepared inputs
-                Map<String, OnnxTensor> modelInputs = new HashMap<>();
-                try (OnnxTensor inputIdsTensor = OnnxTensor.createTensor(env, inputIds);
-                        OnnxTensor attentionMaskTensor = OnnxTensor.createTensor(env, attentionMask)) {
-
-                    modelInputs.put("input_ids", inputIdsTensor);
-                    modelInputs.put("attention_mask", attentionMaskTensor);
-
-                    try (OrtSession.Result modelResults = modelSession.run(modelInputs)) {
-                        // Process outputs
-                        // Model outputs: dense_embeddings, sparse_weights, colbert_vectors
-                        float[][] denseEmbeddings = (float[][]) modelResults.get(0).getValue();
-                        float[][][] sparseWeights = (float[][][]) modelResults.get(1).getValue();
-                        float[][][] colbertVectors = (float[][][]) modelResults.get(2).getValue();
-
-                        return new M3EmbeddingOutput(
-                                denseEmbeddings[0], // First dimension is batch
-                                extractSparseWeights(sparseWeights, orderedTokens, attentionMask[0]),
-                                extractColBertVectors(colbertVectors, attentionMask[0]),
-                                orderedTokens);
-                    }
-                }
-            }
+        return runModel(tokenize(texts), outputTypes);
+    }
+
+    /**
+     * Runs the model for a batch of texts in a single model call and returns the
+     * outputs without converting them. Dense, sparse and ColBERT values are only
+     * built for the rows and types that are read. The caller must close the
+     * result.
+     * 
+     * @param texts       The input texts
+     * @param outputTypes The embedding types to compute
+     * @return The batch result, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    public M3EmbeddingResult generateEmbeddingResult(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        if (texts.isEmpty()) {
+            throw new IllegalArgumentException("At least one text is required");
         }
+
+        return runModelResult(tokenize(texts), outputTypes);
     }
 
     /**
-     * Extract sparse weights from model output
+     * Generates all embeddings (dense, sparse, ColBERT) for many texts, letting the
+     * planner group texts of similar token length into batches to minimise padding
+     * 
+     * @param texts   The input texts
+     * @param planner The batch planner deciding batch composition
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
      */
-    private Map<Integer, Float> extractSparseWeights(float[][][] sparseOutput, int[] tokenIds, long[] attentionMask) {
-        Map<Integer, Float> sparseWeights = new HashMap<>();
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, M3BatchPlanner planner)
+            throws OrtException {
+        return generateEmbeddings(texts, planner, M3OutputType.ALL);
+    }
 
-        int seqLen = Math.min(tokenIds.length, sparseOutput[0].length);
+    /**
+     * Generates the requested embedding types for many texts, letting the planner
+     * group texts of similar token length into batches to minimise padding. All
+     * texts are tokenized up front, the batches are run one after another and the
+     * outputs are returned in the caller's original order.
+     * 
+     * @param texts       The input texts
+     * @param planner     The batch planner deciding batch composition
+     * @param outputTypes The embedding types to compute
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, M3BatchPlanner planner,
+            Set<M3OutputType> outputTypes) throws OrtException {
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        for (int i = 0; i < seqLen; i++) {
-            if (attentionMask[i] == 1 && !specialTokenIds.contains(tokenIds[i])) {
-                int tokenId = tokenIds[i];
+        return runPlanned(tokenize(texts), planner, outputTypes);
+    }
 
-                // Use maximum value along the hidden dimension as the token weight
-                float maxWeight = 0;
-                for (int j = 0; j < sparseOutput[0][i].length; j++) {
-                    maxWeight = Math.max(maxWeight, sparseOutput[0][i][j]);
-                }
+    /**
+     * Generates all embeddings of a long document, split into windows of 512
+     * tokens that overlap by 64 tokens
+     * 
+     * @param text The document text
+     * @return The per-chunk outputs and the pooled document embeddings
+     * @throws OrtException If there's an error during inference
+     */
+    public M3DocumentEmbedding generateDocumentEmbedding(String text) throws OrtException {
+        return generateDocumentEmbedding(text, 512, 64, M3OutputType.ALL);
+    }
 
-                if (maxWeight > 0) {
-                    sparseWeights.put(tokenId, Math.max(
-                            sparseWeights.getOrDefault(tokenId, 0.0f),
-                            maxWeight));
-                }
+    /**
+     * Generates the requested embedding types of a document of any length. The
+     * document is tokenized in full, ignoring the configured maximum token count,
+     * and its tokens are split into overlapping windows that are each wrapped in
+     * [CLS] and [SEP]. The windows run as batches, so attention cost grows with the
+     * window size instead of the square of the document length.
+     * 
+     * @param text          The document text
+     * @param windowTokens  Maximum number of tokens per window, including [CLS]
+     *                      and [SEP]
+     * @param overlapTokens Number of tokens shared by consecutive windows
+     * @param outputTypes   The embedding types to compute
+     * @return The per-chunk outputs and the pooled document embeddings
+     * @throws OrtException If there's an error during inference
+     */
+    public M3DocumentEmbedding generateDocumentEmbedding(String text, int windowTokens, int overlapTokens,
+            Set<M3OutputType> outputTypes) throws OrtException {
+        M3TokenWindows windows = tokenizeDocument(text, windowTokens, overlapTokens);
+        List<M3EmbeddingOutput> chunks = runWindows(windows.windows, outputTypes);
+        return new M3DocumentEmbedding(chunks, windows.starts, windows.ends);
+    }
+
+    /**
+     * Generates late-chunking embeddings with one chunk per sentence. Sentence
+     * boundaries follow the rules of the given locale.
+     * 
+     * @param text   The document text
+     * @param locale The locale whose sentence boundary rules are used
+     * @return The document output and one embedding per sentence
+     * @throws OrtException If there's an error during inference
+     */
+    public M3LateChunkEmbedding generateLateChunkEmbedding(String text, Locale locale) throws OrtException {
+        return runLateChunk(inputTokenizer.tokenizeSentences(text, locale));
+    }
+
+    /**
+     * Generates late-chunking embeddings for chunks given as character spans. The
+     * document runs through the model once and each chunk embedding pools the
+     * ColBERT vectors of the chunk's tokens, so it is computed with the whole
+     * document as context.
+     * 
+     * The text is tokenized piece by piece: each span, and each gap between spans,
+     * is tokenized separately and the tokens are concatenated into one sequence.
+     * This gives exact token ranges for the spans, at the cost of splitting words
+     * that cross a span boundary. The document must fit into the configured
+     * maximum token count; longer documents need
+     * {@link #generateDocumentEmbedding(String, int, int, Set)}.
+     * 
+     * @param text       The document text
+     * @param spanStarts Start character of each chunk, in ascending order
+     * @param spanEnds   End (exclusive) character of each chunk. Chunks must not
+     *                   overlap.
+     * @return The document output and one embedding per chunk
+     * @throws OrtException If there's an error during inference
+     */
+    public M3LateChunkEmbedding generateLateChunkEmbedding(String text, int[] spanStarts, int[] spanEnds)
+            throws OrtException {
+        return runLateChunk(inputTokenizer.tokenizeSpans(text, spanStarts, spanEnds));
+    }
+
+    /**
+     * Runs a late-chunked document through the model and pools its chunks
+     */
+    M3LateChunkEmbedding runLateChunk(M3InputTokenizer.SpanTokens spanTokens) throws OrtException {
+        M3EmbeddingOutput document = runModel(List.of(spanTokens.tokenIds), M3OutputType.ALL).get(0);
+        return new M3LateChunkEmbedding(document, spanTokens.chunkStarts, spanTokens.chunkEnds);
+    }
+
+    /**
+     * Tokenizes a document without truncation and splits it into windows
+     */
+    M3TokenWindows tokenizeDocument(String text, int windowTokens, int overlapTokens) throws OrtException {
+        return inputTokenizer.tokenizeDocument(text, windowTokens, overlapTokens);
+    }
+
+    /**
+     * Runs document windows in batches of similar length
+     */
+    List<M3EmbeddingOutput> runWindows(List<int[]> windows, Set<M3OutputType> outputTypes) throws OrtException {
+        return runPlanned(windows, new M3BatchPlanner(), outputTypes);
+    }
+
+    /**
+     * Runs tokenized texts in the batches chosen by the planner and returns the
+     * outputs in the original order
+     */
+    List<M3EmbeddingOutput> runPlanned(List<int[]> tokenIds, M3BatchPlanner planner,
+            Set<M3OutputType> outputTypes) throws OrtException {
+        int[] tokenCounts = new int[tokenIds.size()];
+        for (int i = 0; i < tokenCounts.length; i++) {
+            tokenCounts[i] = tokenIds.get(i).length;
+        }
+
+        M3EmbeddingOutput[] outputs = new M3EmbeddingOutput[tokenIds.size()];
+        for (int[] batch : planner.plan(tokenCounts).getBatches()) {
+            List<int[]> batchTokenIds = new ArrayList<>(batch.length);
+            for (int index : batch) {
+                batchTokenIds.add(tokenIds.get(index));
+            }
+
+            // Restore the caller's order
+            List<M3EmbeddingOutput> batchOutputs = runModel(batchTokenIds, outputTypes);
+            for (int i = 0; i < batch.length; i++) {
+                outputs[batch[i]] = batchOutputs.get(i);
             }
         }
 
-        return sparseWeights;
+        return new ArrayList<>(Arrays.asList(outputs));
+    }
+
+    /**
+     * Counts the tokens of each text, including [CLS] and [SEP]. With the token
+     * cache enabled, repeated texts are not tokenized again, so this is a cheap way
+     * to learn sequence lengths before scheduling batches.
+     * 
+     * @param texts The input texts
+     * @return Token count of each text, in the same order as the input texts
+     * @throws OrtException If there's an error during tokenization
+     */
+    public int[] countTokens(List<String> texts) throws OrtException {
+        if (texts.isEmpty()) {
+            return new int[0];
+        }
+
+        List<int[]> tokenIds = tokenize(texts);
+        int[] tokenCounts = new int[tokenIds.size()];
+        for (int i = 0; i < tokenCounts.length; i++) {
+            tokenCounts[i] = tokenIds.get(i).length;
+        }
+        return tokenCounts;
+    }
+
+    /**
+     * Gets the number of texts whose token IDs were found in the token cache
+     */
+    public long getTokenCacheHitCount() {
+        return inputTokenizer.getTokenCacheHitCount();
+    }
+
+    /**
+     * Gets the number of texts that had to run through the tokenizer while
+     * the token cache was enabled
+     */
+    public long getTokenCacheMissCount() {
+        return inputTokenizer.getTokenCacheMissCount();
     }
 
     /**
-     * Extract ColBERT vectors from model output
+     * Returns the token IDs of each text in sequence order, taking them from the
+     * token cache where possible and tokenizing the rest with a single tokenizer
+     * call
      */
-    private float[][] extractColBertVectors(float[][][] colbertOutput, long[] attentionMask) {
-        List<float[]> colbertVectors = new ArrayList<>();
+    List<int[]> tokenize(List<String> texts) throws OrtException {
+        return inputTokenizer.tokenize(texts);
+    }
+
+    /**
+     * Runs the model on a batch of tokenized texts and splits the outputs per row
+     */
+    List<M3EmbeddingOutput> runModel(List<int[]> tokenIds, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        try (M3EmbeddingResult result = runModelResult(tokenIds, outputTypes)) {
+            return result.toOutputs();
+        }
+    }
+
+    /**
+     * Runs the model on a batch of tokenized texts and returns the outputs
+     * unconverted. Outputs with a fixed width are written by ORT straight into
+     * direct buffers of this embedder, which the returned result reads in place
+     * and hands back when it is closed.
+     */
+    M3EmbeddingResult runModelResult(List<int[]> tokenIds, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        if (outputTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one output type must be requested");
+        }
+
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
 
-        int seqLen = colbertOutput[0].length;
-        int hiddenSize = colbertOutput[0][0].length;
+        int batchSize = tokenIds.size();
+        int maxLength = 0;
+        for (int[] ids : tokenIds) {
+            maxLength = Math.max(maxLength, ids.length);
+        }
+
+        // Fill input_ids with shape [batch, maxLength], padded with the [PAD] token,
+        // and an attention_mask that is 1 for real tokens and 0 for padding. Both live
+        // in reusable direct buffers that ORT reads without copying.
+        RunBuffers buffers = takeRunBuffers(Math.multiplyExact(batchSize, maxLength));
+        boolean buffersHandedOff = false;
+        LongBuffer inputIds = buffers.inputIds;
+        LongBuffer attentionMask = buffers.attentionMask;
+        for (int row = 0; row < batchSize; row++) {
+            int[] ids = tokenIds.get(row);
+            int rowOffset = row * maxLength;
+            for (int i = 0; i < maxLength; i++) {
+                boolean isToken = i < ids.length;
+                inputIds.put(rowOffset + i, isToken ? ids[i] : M3SpecialTokens.PAD_TOKEN_ID);
+                attentionMask.put(rowOffset + i, isToken ? 1 : 0);
+            }
+        }
+
+        // Run the model with the prepared inputs
+        long[] inputShape = new long[] { batchSize, maxLength };
+        Map<String, OnnxTensor> modelInputs = new HashMap<>();
+        Map<String, OnnxTensor> pinnedOutputs = new HashMap<>();
+        try (OnnxTensor inputIdsTensor = OnnxTensor.createTensor(env, inputIds, inputShape);
+                OnnxTensor attentionMaskTensor = OnnxTensor.createTensor(env, attentionMask, inputShape)) {
+
+            modelInputs.put("input_ids", inputIdsTensor);
+            modelInputs.put("attention_mask", attentionMaskTensor);
+
+            // Model outputs: dense_embeddings [batch, hidden], sparse_weights [batch, seqLen, 1],
+            // colbert_vectors [batch, seqLen - 1, hidden]. Only the requested outputs are
+            // bound so ORT can skip the unused heads. Outputs whose width the model does
+            // not declare are fetched into ORT-allocated memory instead.
+            Set<String> outputNames = new HashSet<>();
+            FloatBuffer[] outputBuffers = new FloatBuffer[M3OutputType.values().length];
+            long[][] outputShapes = new long[M3OutputType.values().length][];
+            for (M3OutputType outputType : outputTypes) {
+                int slot = outputType.ordinal();
+                long[] shape = getPinnedOutputShape(outputType, batchSize, maxLength);
+                if (shape == null) {
+                    outputNames.add(outputType.getOutputName());
+                    continue;
+                }
 
-        for (int i = 0; i < seqLen && i < attentionMask.length; i++) {
-            if (attentionMask[i] == 1) {
-                float[] vector = new float[hiddenSize];
-                System.arraycopy(colbertOutput[0][i], 0, vector, 0, hiddenSize);
-                colbertVectors.add(vector);
+                FloatBuffer buffer = buffers.prepareOutput(slot, elementCount(shape));
+                pinnedOutputs.put(outputType.getOutputName(), OnnxTensor.createTensor(env, buffer, shape));
+                outputBuffers[slot] = buffer;
+                outputShapes[slot] = shape;
             }
+
+            M3EmbeddingResult result = new M3EmbeddingResult(modelSession.run(modelInputs, outputNames, pinnedOutputs),
+                    tokenIds, maxLength, outputTypes, outputBuffers, outputShapes, () -> returnRunBuffers(buffers));
+            buffersHandedOff = true;
+            return result;
+        } finally {
+            // The pinned tensors only wrap the buffers, the data stays in them
+            for (OnnxTensor tensor : pinnedOutputs.values()) {
+                tensor.close();
+            }
+            if (!buffersHandedOff) {
+                returnRunBuffers(buffers);
+            }
+        }
+    }
+
+    /**
+     * Reads the fixed width (last dimension) of each model output, or 0 when the
+     * model leaves it dynamic
+     */
+    private static int[] readOutputWidths(OrtSession session) throws OrtException {
+        Map<String, NodeInfo> outputInfo = session.getOutputInfo();
+        int[] widths = new int[M3OutputType.values().length];
+        for (M3OutputType outputType : M3OutputType.values()) {
+            NodeInfo info = outputInfo.get(outputType.getOutputName());
+            if (info != null && info.getInfo() instanceof TensorInfo tensorInfo
+                    && tensorInfo.type == OnnxJavaType.FLOAT) {
+                long[] shape = tensorInfo.getShape();
+                widths[outputType.ordinal()] = (int) Math.max(0, shape[shape.length - 1]);
+            }
+        }
+        return widths;
+    }
+
+    private static int elementCount(long[] shape) {
+        long count = 1;
+        for (long dimension : shape) {
+            count *= dimension;
+        }
+        return Math.toIntExact(count);
+    }
+
+    /**
+     * Gets the shape of an output for a batch, or null if it cannot be allocated up
+     * front because the model does not declare its width or the output is larger
+     * than a direct buffer can hold
+     */
+    private long[] getPinnedOutputShape(M3OutputType outputType, int batchSize, int sequenceLength) {
+        int width = outputWidths[outputType.ordinal()];
+        if (width == 0) {
+            return null;
         }
+        long[] shape = switch (outputType) {
+            case DENSE -> new long[] { batchSize, width };
+            case SPARSE -> new long[] { batchSize, sequenceLength, width };
+            // ColBERT vectors start after [CLS]
+            case COLBERT -> new long[] { batchSize, sequenceLength - 1, width };
+        };
+
+        long count = 1;
+        for (long dimension : shape) {
+            count *= dimension;
+        }
+        return count <= RunBuffers.MAX_FLOAT_ELEMENTS ? shape : null;
+    }
+
+    /**
+     * Takes an idle set of run buffers with room for the given number of tokens,
+     * or allocates a new one
+     */
+    private RunBuffers takeRunBuffers(int size) {
+        RunBuffers buffers = idleRunBuffers.pollFirst();
+        if (buffers == null || buffers.capacity() < size) {
+            // A set that is too small is dropped, the new one replaces it
+            buffers = new RunBuffers(RunBuffers.growCapacity(buffers != null ? buffers.capacity() : 0, size,
+                    RunBuffers.MAX_LONG_ELEMENTS));
+        }
+        buffers.prepare(size);
+        return buffers;
+    }
 
-        return colbertVectors.toArray(new float[0][]);
+    /**
+     * Keeps a set of run buffers for the next run unless it grew past the
+     * retention limit or the embedder was closed
+     */
+    private void returnRunBuffers(RunBuffers buffers) {
+        if (!closed && buffers.capacity() <= MAX_RETAINED_BUFFER_TOKENS) {
+            idleRunBuffers.offerFirst(buffers);
+        }
     }
 
     /**
-     * Helper class for pairing tokens with their indices
+     * Direct buffers holding the model inputs and outputs of one run. Output
+     * buffers are allocated on first use per output type.
      */
-    private static class TokenIndexPair {
-        public final int token;
-        public final int index;
+    private static class RunBuffers {
+        // Most elements a direct buffer can hold, its size in bytes being an int
+        public static final int MAX_LONG_ELEMENTS = Integer.MAX_VALUE / Long.BYTES;
+        public static final int MAX_FLOAT_ELEMENTS = Integer.MAX_VALUE / Float.BYTES;
+
+        public final LongBuffer inputIds;
+        public final LongBuffer attentionMask;
+        private final FloatBuffer[] outputs = new FloatBuffer[M3OutputType.values().length];
+
+        public RunBuffers(int capacity) {
+            this.inputIds = allocateLongs(capacity);
+            this.attentionMask = allocateLongs(capacity);
+        }
+
+        /**
+         * Gets the number of tokens the input buffers hold
+         */
+        public int capacity() {
+            return inputIds.capacity();
+        }
+
+        /**
+         * Limits the input buffers to the given number of elements
+         */
+        public void prepare(int size) {
+            inputIds.clear().limit(size);
+            attentionMask.clear().limit(size);
+        }
+
+        /**
+         * Gets an output buffer of exactly the given number of elements, growing the
+         * underlying buffer if needed
+         */
+        public FloatBuffer prepareOutput(int slot, int size) {
+            if (outputs[slot] == null || outputs[slot].capacity() < size) {
+                int capacity = growCapacity(outputs[slot] != null ? outputs[slot].capacity() : 0, size,
+                        MAX_FLOAT_ELEMENTS);
+                outputs[slot] = allocateFloats(capacity);
+            }
+            return outputs[slot].slice(0, size);
+        }
+
+        /**
+         * Gets the capacity for a buffer that must hold size elements: double the
+         * current capacity, but at least size and at most maxElements
+         */
+        public static int growCapacity(int capacity, int size, int maxElements) {
+            if (size > maxElements) {
+                throw new IllegalArgumentException("A batch needs " + size
+                        + " elements in one buffer, more than the maximum of " + maxElements
+                        + "; use smaller batches or shorter texts");
+            }
+            return (int) Math.min(maxElements, Math.max(size, 2L * capacity));
+        }
+
+        private static LongBuffer allocateLongs(int capacity) {
+            return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, Long.BYTES))
+                    .order(ByteOrder.nativeOrder())
+                    .asLongBuffer();
+        }
 
-        public TokenIndexPair(int token, int index) {
-            this.token = token;
-            this.index = index;
+        private static FloatBuffer allocateFloats(int capacity) {
+            return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, Float.BYTES))
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
         }
     }
 
     @Override
     public void close() throws Exception {
-        if (tokenizerSession != null) {
-            tokenizerSession.close();
+        // Direct memory is freed once the idle buffers are unreachable
+        closed = true;
+        idleRunBuffers.clear();
+        if (tokenizer != null && ownsTokenizer) {
+            tokenizer.close();
         }
         if (modelSession != null) {
             modelSession.close();
@@ -1,5 +1,8 @@
 package com.yunikosoftware.bgem3onnx;
 
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+
 /**
  * Configuration for M3Embedder initialization
  */
@@ -10,6 +13,15 @@ public class M3EmbedderConfig {
     private final boolean enableMemoryPattern;
     private final boolean enableCpuMemArena;
     private final int logSeverityLevel;
+    private final int intraOpNumThreads;
+    private final int interOpNumThreads;
+    private final ExecutionMode executionMode;
+    private final OptLevel optimizationLevel;
+    private final boolean allowSpinning;
+    private final long tokenCacheMaxBytes;
+    private final TokenizerType tokenizerType;
+    private final int tokenizerPoolSize;
+    private final int maxTokens;
 
     public M3EmbedderConfig() {
         this(ExecutionProvider.CPU, new ExecutionProvider[]{ExecutionProvider.CPU}, 0, true, true, 2);
@@ -18,12 +30,44 @@ public class M3EmbedderConfig {
     public M3EmbedderConfig(ExecutionProvider executionProvider, ExecutionProvider[] fallbackProviders, 
                            int cudaDeviceId, boolean enableMemoryPattern, boolean enableCpuMemArena, 
                            int logSeverityLevel) {
-        this.executionProvider = executionProvider;
-        this.fallbackProviders = fallbackProviders;
-        this.cudaDeviceId = cudaDeviceId;
-        this.enableMemoryPattern = enableMemoryPattern;
-        this.enableCpuMemArena = enableCpuMemArena;
-        this.logSeverityLevel = logSeverityLevel;
+        this(executionProvider, fallbackProviders, cudaDeviceId, enableMemoryPattern, enableCpuMemArena,
+             logSeverityLevel, 0, 0, ExecutionMode.SEQUENTIAL, OptLevel.ALL_OPT, true);
+    }
+
+    public M3EmbedderConfig(ExecutionProvider executionProvider, ExecutionProvider[] fallbackProviders, 
+                           int cudaDeviceId, boolean enableMemoryPattern, boolean enableCpuMemArena, 
+                           int logSeverityLevel, int intraOpNumThreads, int interOpNumThreads,
+                           ExecutionMode executionMode, OptLevel optimizationLevel, boolean allowSpinning) {
+        this(new Builder()
+                .executionProvider(executionProvider)
+                .fallbackProviders(fallbackProviders)
+                .cudaDeviceId(cudaDeviceId)
+                .enableMemoryPattern(enableMemoryPattern)
+                .enableCpuMemArena(enableCpuMemArena)
+                .logSeverityLevel(logSeverityLevel)
+                .intraOpNumThreads(intraOpNumThreads)
+                .interOpNumThreads(interOpNumThreads)
+                .executionMode(executionMode)
+                .optimizationLevel(optimizationLevel)
+                .allowSpinning(allowSpinning));
+    }
+
+    private M3EmbedderConfig(Builder builder) {
+        this.executionProvider = builder.executionProvider;
+        this.fallbackProviders = builder.fallbackProviders;
+        this.cudaDeviceId = builder.cudaDeviceId;
+        this.enableMemoryPattern = builder.enableMemoryPattern;
+        this.enableCpuMemArena = builder.enableCpuMemArena;
+        this.logSeverityLevel = builder.logSeverityLevel;
+        this.intraOpNumThreads = builder.intraOpNumThreads;
+        this.interOpNumThreads = builder.interOpNumThreads;
+        this.executionMode = builder.executionMode;
+        this.optimizationLevel = builder.optimizationLevel;
+        this.allowSpinning = builder.allowSpinning;
+        this.tokenCacheMaxBytes = builder.tokenCacheMaxBytes;
+        this.tokenizerType = builder.tokenizerType;
+        this.tokenizerPoolSize = builder.tokenizerPoolSize;
+        this.maxTokens = builder.maxTokens;
     }
 
     public ExecutionProvider getExecutionProvider() {
@@ -50,6 +94,77 @@ public class M3EmbedderConfig {
         return logSeverityLevel;
     }
 
+    /**
+     * Gets the number of intra-op threads of the model session (0 uses the ONNX
+     * Runtime default)
+     */
+    public int getIntraOpNumThreads() {
+        return intraOpNumThreads;
+    }
+
+    /**
+     * Gets the number of inter-op threads of the model session (0 uses the ONNX
+     * Runtime default). Only used in parallel execution mode.
+     */
+    public int getInterOpNumThreads() {
+        return interOpNumThreads;
+    }
+
+    /**
+     * Gets whether the model graph runs its nodes sequentially or in parallel
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Gets the graph optimization level of the model session
+     */
+    public OptLevel getOptimizationLevel() {
+        return optimizationLevel;
+    }
+
+    /**
+     * Gets whether idle intra-op and inter-op threads spin instead of sleeping.
+     * Spinning lowers latency but burns CPU that other sessions could use.
+     */
+    public boolean isAllowSpinning() {
+        return allowSpinning;
+    }
+
+    /**
+     * Gets the maximum size in bytes of the cache of tokenized texts (0 disables
+     * the cache)
+     */
+    public long getTokenCacheMaxBytes() {
+        return tokenCacheMaxBytes;
+    }
+
+    /**
+     * Gets the tokenizer implementation
+     */
+    public TokenizerType getTokenizerType() {
+        return tokenizerType;
+    }
+
+    /**
+     * Gets the number of tokenizer ONNX sessions, each used by one thread at a
+     * time (0 uses one session per embedder, or one per model session in an
+     * M3EmbedderPool). Only used with {@link TokenizerType#ONNX}.
+     */
+    public int getTokenizerPoolSize() {
+        return tokenizerPoolSize;
+    }
+
+    /**
+     * Gets the maximum number of tokens per sequence, including [CLS] and [SEP]
+     * (0 disables truncation). Longer texts are truncated before they reach the
+     * model.
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
     public static class Builder {
         private ExecutionProvider executionProvider = ExecutionProvider.CPU;
         private ExecutionProvider[] fallbackProviders = new ExecutionProvider[]{ExecutionProvider.CPU};
@@ -57,6 +172,39 @@ public class M3EmbedderConfig {
         private boolean enableMemoryPattern = true;
         private boolean enableCpuMemArena = true;
         private int logSeverityLevel = 2;
+        private int intraOpNumThreads = 0;
+        private int interOpNumThreads = 0;
+        private ExecutionMode executionMode = ExecutionMode.SEQUENTIAL;
+        private OptLevel optimizationLevel = OptLevel.ALL_OPT;
+        private boolean allowSpinning = true;
+        private long tokenCacheMaxBytes = 0;
+        private TokenizerType tokenizerType = TokenizerType.ONNX;
+        private int tokenizerPoolSize = 0;
+        private int maxTokens = 8192;
+
+        public Builder() {
+        }
+
+        /**
+         * Creates a builder initialized with the values of an existing configuration
+         */
+        public Builder(M3EmbedderConfig config) {
+            this.executionProvider = config.executionProvider;
+            this.fallbackProviders = config.fallbackProviders;
+            this.cudaDeviceId = config.cudaDeviceId;
+            this.enableMemoryPattern = config.enableMemoryPattern;
+            this.enableCpuMemArena = config.enableCpuMemArena;
+            this.logSeverityLevel = config.logSeverityLevel;
+            this.intraOpNumThreads = config.intraOpNumThreads;
+            this.interOpNumThreads = config.interOpNumThreads;
+            this.executionMode = config.executionMode;
+            this.optimizationLevel = config.optimizationLevel;
+            this.allowSpinning = config.allowSpinning;
+            this.tokenCacheMaxBytes = config.tokenCacheMaxBytes;
+            this.tokenizerType = config.tokenizerType;
+            this.tokenizerPoolSize = config.tokenizerPoolSize;
+            this.maxTokens = config.maxTokens;
+        }
 
         public Builder executionProvider(ExecutionProvider executionProvider) {
             this.executionProvider = executionProvider;
@@ -88,9 +236,53 @@ public class M3EmbedderConfig {
             return this;
         }
 
+        public Builder intraOpNumThreads(int intraOpNumThreads) {
+            this.intraOpNumThreads = intraOpNumThreads;
+            return this;
+        }
+
+        public Builder interOpNumThreads(int interOpNumThreads) {
+            this.interOpNumThreads = interOpNumThreads;
+            return this;
+        }
+
+        public Builder executionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        public Builder optimizationLevel(OptLevel optimizationLevel) {
+            this.optimizationLevel = optimizationLevel;
+            return this;
+        }
+
+        public Builder allowSpinning(boolean allowSpinning) {
+            this.allowSpinning = allowSpinning;
+            return this;
+        }
+
+        public Builder tokenCacheMaxBytes(long tokenCacheMaxBytes) {
+            this.tokenCacheMaxBytes = tokenCacheMaxBytes;
+            return this;
+        }
+
+        public Builder tokenizerType(TokenizerType tokenizerType) {
+            this.tokenizerType = tokenizerType;
+            return this;
+        }
+
+        public Builder tokenizerPoolSize(int tokenizerPoolSize) {
+            this.tokenizerPoolSize = tokenizerPoolSize;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
         public M3EmbedderConfig build() {
-            return new M3EmbedderConfig(executionProvider, fallbackProviders, cudaDeviceId, 
-                                      enableMemoryPattern, enableCpuMemArena, logSeverityLevel);
+            return new M3EmbedderConfig(this);
         }
     }
 }
\ No newline at end of file
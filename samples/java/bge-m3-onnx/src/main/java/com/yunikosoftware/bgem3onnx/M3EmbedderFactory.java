@@ -1,6 +1,10 @@
 package com.yunikosoftware.bgem3onnx;
 
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Factory class for creating M3Embedder instances with common configurations
@@ -26,6 +30,78 @@ public class M3EmbedderFactory {
         return new M3Embedder(tokenizerPath, modelPath, config);
     }
 
+    /**
+     * Creates an M3Embedder tuned for the lowest single-request latency on CPU: one
+     * session that uses every core for intra-op parallelism and keeps its threads
+     * spinning between requests
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param modelPath Path to the ONNX embedding model
+     * @return M3Embedder configured for low latency
+     * @throws OrtException If there's an error initializing the ONNX sessions
+     */
+    public static M3Embedder createLatencyOptimized(String tokenizerPath, String modelPath) throws OrtException {
+        M3EmbedderConfig config = new M3EmbedderConfig.Builder()
+                .executionProvider(ExecutionProvider.CPU)
+                .enableMemoryPattern(true)
+                .enableCpuMemArena(true)
+                .intraOpNumThreads(Runtime.getRuntime().availableProcessors())
+                .interOpNumThreads(1)
+                .executionMode(ExecutionMode.SEQUENTIAL)
+                .optimizationLevel(OptLevel.ALL_OPT)
+                .allowSpinning(true)
+                .logSeverityLevel(2)
+                .build();
+
+        return new M3Embedder(tokenizerPath, modelPath, config);
+    }
+
+    /**
+     * Creates an M3EmbedderPool tuned for throughput on CPU: many sessions that
+     * split the cores between them, with thread spinning disabled so idle sessions
+     * do not take CPU away from busy ones
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param modelPath Path to the ONNX embedding model
+     * @param poolSize Number of model sessions, at least 1
+     * @return M3EmbedderPool configured for throughput
+     * @throws OrtException If there's an error initializing the ONNX sessions
+     */
+    public static M3EmbedderPool createThroughputOptimized(String tokenizerPath, String modelPath, int poolSize) throws OrtException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive");
+        }
+
+        // At least one thread per session, also with more sessions than cores
+        M3EmbedderConfig config = new M3EmbedderConfig.Builder()
+                .executionProvider(ExecutionProvider.CPU)
+                .enableMemoryPattern(true)
+                .enableCpuMemArena(true)
+                .intraOpNumThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / poolSize))
+                .interOpNumThreads(1)
+                .executionMode(ExecutionMode.SEQUENTIAL)
+                .optimizationLevel(OptLevel.ALL_OPT)
+                .allowSpinning(false)
+                .logSeverityLevel(2)
+                .build();
+
+        return new M3EmbedderPool(tokenizerPath, modelPath, config, poolSize);
+    }
+
+    /**
+     * Creates an M3EmbedderPool tuned for throughput on CPU with one session per
+     * four cores
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param modelPath Path to the ONNX embedding model
+     * @return M3EmbedderPool configured for throughput
+     * @throws OrtException If there's an error initializing the ONNX sessions
+     */
+    public static M3EmbedderPool createThroughputOptimized(String tokenizerPath, String modelPath) throws OrtException {
+        return createThroughputOptimized(tokenizerPath, modelPath,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+    }
+
     /**
      * Creates an M3Embedder optimized for CUDA inference
      * 
@@ -86,4 +162,34 @@ public class M3EmbedderFactory {
 
         return new M3Embedder(tokenizerPath, modelPath, config);
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the tokenizer selected in the configuration: a single tokenizer
+     * session, a pool of tokenizer sessions if the tokenizer pool size is above 1,
+     * or the pure-Java SentencePiece tokenizer
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param config        Configuration selecting the tokenizer
+     * @return The tokenizer
+     * @throws OrtException If there's an error initializing the tokenizer
+     */
+    public static M3Tokenizer createTokenizer(String tokenizerPath, M3EmbedderConfig config) throws OrtException {
+        switch (config.getTokenizerType()) {
+            case ONNX:
+                return config.getTokenizerPoolSize() > 1
+                        ? new PooledOnnxTokenizer(tokenizerPath, config, config.getTokenizerPoolSize())
+                        : new OnnxTokenizer(tokenizerPath, config);
+
+            case SENTENCEPIECE:
+                try {
+                    return SentencePieceTokenizer.fromOnnxTokenizer(Path.of(tokenizerPath));
+                } catch (IOException e) {
+                    throw new OrtException("Failed to load SentencePiece model from " + tokenizerPath + ": "
+                            + e.getMessage());
+                }
+
+            default:
+                throw new IllegalArgumentException("Unsupported tokenizer type: " + config.getTokenizerType());
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of M3Embedder instances for concurrent inference. Each pooled embedder
+ * owns its own model session with its own intra-op thread budget, and every
+ * request is handed to an idle embedder through a lock-free queue. Callers only
+ * block when all embedders are busy. Texts are tokenized before an embedder is
+ * taken, so sessions are only held for inference. Tokenization, including the
+ * token cache, is shared by all embedders; the tokenizer pools its own sessions.
+ */
+public class M3EmbedderPool implements M3EmbeddingGenerator {
+    private final M3Tokenizer tokenizer;
+    private final M3InputTokenizer inputTokenizer;
+    private final List<PooledEmbedder> embedders;
+    private final ConcurrentLinkedQueue<PooledEmbedder> idleEmbedders = new ConcurrentLinkedQueue<>();
+    private final Semaphore availableEmbedders;
+    private final M3EmbedderConfig config;
+    private final ExecutorService windowExecutor;
+    private final long createdAtNanos = System.nanoTime();
+
+    /**
+     * Initializes a new instance of the M3EmbedderPool class with default CPU
+     * provider
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param modelPath     Path to the ONNX BGE-M3 model
+     * @param poolSize      Number of model sessions
+     * @throws OrtException If there's an error initializing the ONNX sessions
+     */
+    public M3EmbedderPool(String tokenizerPath, String modelPath, int poolSize) throws OrtException {
+        this(tokenizerPath, modelPath, new M3EmbedderConfig(), poolSize);
+    }
+
+    /**
+     * Initializes a new instance of the M3EmbedderPool class with specified
+     * configuration. If the configuration does not set the intra-op thread count,
+     * the available cores are split evenly between the sessions. If it does not
+     * set the tokenizer pool size, one tokenizer session is created per model
+     * session.
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param modelPath     Path to the ONNX BGE-M3 model
+     * @param config        Configuration applied to every session
+     * @param poolSize      Number of model sessions
+     * @throws OrtException If there's an error initializing the ONNX sessions
+     */
+    public M3EmbedderPool(String tokenizerPath, String modelPath, M3EmbedderConfig config, int poolSize)
+            throws OrtException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive");
+        }
+
+        int threadsPerSession = config.getIntraOpNumThreads() > 0
+                ? config.getIntraOpNumThreads()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / poolSize);
+        int tokenizerPoolSize = config.getTokenizerPoolSize() > 0 ? config.getTokenizerPoolSize() : poolSize;
+        this.config = new M3EmbedderConfig.Builder(config)
+                .intraOpNumThreads(threadsPerSession)
+                .tokenizerPoolSize(tokenizerPoolSize)
+                .build();
+
+        this.tokenizer = M3EmbedderFactory.createTokenizer(tokenizerPath, this.config);
+        this.embedders = new ArrayList<>(poolSize);
+        try {
+            this.inputTokenizer = new M3InputTokenizer(tokenizer, this.config);
+            for (int i = 0; i < poolSize; i++) {
+                PooledEmbedder embedder = new PooledEmbedder(new M3Embedder(inputTokenizer, modelPath, this.config));
+                embedders.add(embedder);
+                idleEmbedders.add(embedder);
+            }
+        } catch (OrtException | RuntimeException e) {
+            closeEmbedders();
+            throw e;
+        }
+
+        this.availableEmbedders = new Semaphore(poolSize);
+
+        // Runs the windows of a long document on the other sessions while the
+        // calling thread runs its own share
+        this.windowExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "m3-embedder-pool-window");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the configuration used by each pooled embedder
+     * 
+     * @return The per-session configuration
+     */
+    public M3EmbedderConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the number of pooled embedders
+     * 
+     * @return The pool size
+     */
+    public int getPoolSize() {
+        return embedders.size();
+    }
+
+    @Override
+    public M3EmbeddingOutput generateEmbeddings(String text, Set<M3OutputType> outputTypes) throws OrtException {
+        List<int[]> tokenIds = inputTokenizer.tokenize(List.of(text));
+        return execute(embedder -> embedder.runModel(tokenIds, outputTypes)).get(0);
+    }
+
+    @Override
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<int[]> tokenIds = inputTokenizer.tokenize(texts);
+        return execute(embedder -> embedder.runModel(tokenIds, outputTypes));
+    }
+
+    /**
+     * Runs the model for a batch of texts on one pooled embedder and returns the
+     * outputs without converting them. The result does not hold on to the
+     * embedder, which is returned to the pool right away. The caller must close
+     * the result.
+     * 
+     * @param texts       The input texts
+     * @param outputTypes The embedding types to compute
+     * @return The batch result, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    public M3EmbeddingResult generateEmbeddingResult(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        if (texts.isEmpty()) {
+            throw new IllegalArgumentException("At least one text is required");
+        }
+
+        List<int[]> tokenIds = inputTokenizer.tokenize(texts);
+        return execute(embedder -> embedder.runModelResult(tokenIds, outputTypes));
+    }
+
+    /**
+     * Generates embeddings for many texts on one pooled embedder, letting the
+     * planner group texts of similar token length into batches
+     * 
+     * @param texts   The input texts
+     * @param planner The batch planner deciding batch composition
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, M3BatchPlanner planner)
+            throws OrtException {
+        return generateEmbeddings(texts, planner, M3OutputType.ALL);
+    }
+
+    /**
+     * Generates the requested embedding types for many texts on one pooled
+     * embedder, letting the planner group texts of similar token length into batches
+     * 
+     * @param texts       The input texts
+     * @param planner     The batch planner deciding batch composition
+     * @param outputTypes The embedding types to compute
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, M3BatchPlanner planner,
+            Set<M3OutputType> outputTypes) throws OrtException {
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<int[]> tokenIds = inputTokenizer.tokenize(texts);
+        return execute(embedder -> embedder.runPlanned(tokenIds, planner, outputTypes));
+    }
+
+    /**
+     * Generates the requested embedding types of a document of any length, split
+     * into overlapping token windows. The windows are divided between the pooled
+     * sessions and run in parallel.
+     * 
+     * @param text          The document text
+     * @param windowTokens  Maximum number of tokens per window, including [CLS]
+     *                      and [SEP]
+     * @param overlapTokens Number of tokens shared by consecutive windows
+     * @param outputTypes   The embedding types to compute
+     * @return The per-chunk outputs and the pooled document embeddings
+     * @throws OrtException If there's an error during inference
+     * @see M3Embedder#generateDocumentEmbedding(String, int, int, Set)
+     */
+    public M3DocumentEmbedding generateDocumentEmbedding(String text, int windowTokens, int overlapTokens,
+            Set<M3OutputType> outputTypes) throws OrtException {
+        M3TokenWindows windows = inputTokenizer.tokenizeDocument(text, windowTokens, overlapTokens);
+
+        // Contiguous runs of windows, one per session
+        int windowCount = windows.windows.size();
+        int partCount = Math.min(embedders.size(), windowCount);
+        int partSize = (windowCount + partCount - 1) / partCount;
+        List<CompletableFuture<List<M3EmbeddingOutput>>> parts = new ArrayList<>();
+        for (int start = partSize; start < windowCount; start += partSize) {
+            List<int[]> part = windows.windows.subList(start, Math.min(start + partSize, windowCount));
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return execute(embedder -> embedder.runWindows(part, outputTypes));
+                } catch (OrtException e) {
+                    throw new CompletionException(e);
+                }
+            }, windowExecutor));
+        }
+
+        List<M3EmbeddingOutput> chunks = new ArrayList<>(windowCount);
+        chunks.addAll(execute(embedder -> embedder.runWindows(windows.windows.subList(0, partSize), outputTypes)));
+        for (CompletableFuture<List<M3EmbeddingOutput>> part : parts) {
+            try {
+                chunks.addAll(part.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof OrtException) {
+                    throw (OrtException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        return new M3DocumentEmbedding(chunks, windows.starts, windows.ends);
+    }
+
+    /**
+     * Generates late-chunking embeddings with one chunk per sentence on one pooled
+     * embedder
+     * 
+     * @param text   The document text
+     * @param locale The locale whose sentence boundary rules are used
+     * @return The document output and one embedding per sentence
+     * @throws OrtException If there's an error during inference
+     * @see M3Embedder#generateLateChunkEmbedding(String, Locale)
+     */
+    public M3LateChunkEmbedding generateLateChunkEmbedding(String text, Locale locale) throws OrtException {
+        M3InputTokenizer.SpanTokens spanTokens = inputTokenizer.tokenizeSentences(text, locale);
+        return execute(embedder -> embedder.runLateChunk(spanTokens));
+    }
+
+    /**
+     * Generates late-chunking embeddings for chunks given as character spans on one
+     * pooled embedder
+     * 
+     * @param text       The document text
+     * @param spanStarts Start character of each chunk, in ascending order
+     * @param spanEnds   End (exclusive) character of each chunk
+     * @return The document output and one embedding per chunk
+     * @throws OrtException If there's an error during inference
+     * @see M3Embedder#generateLateChunkEmbedding(String, int[], int[])
+     */
+    public M3LateChunkEmbedding generateLateChunkEmbedding(String text, int[] spanStarts, int[] spanEnds)
+            throws OrtException {
+        M3InputTokenizer.SpanTokens spanTokens = inputTokenizer.tokenizeSpans(text, spanStarts, spanEnds);
+        return execute(embedder -> embedder.runLateChunk(spanTokens));
+    }
+
+    /**
+     * Gets the number of texts whose token IDs were found in the token cache
+     * shared by the pooled embedders
+     */
+    public long getTokenCacheHitCount() {
+        return inputTokenizer.getTokenCacheHitCount();
+    }
+
+    /**
+     * Gets the number of texts that had to run through the tokenizer while the
+     * token cache was enabled
+     */
+    public long getTokenCacheMissCount() {
+        return inputTokenizer.getTokenCacheMissCount();
+    }
+
+    /**
+     * Gets the fraction of time each session has spent running requests since the
+     * pool was created
+     * 
+     * @return Utilization between 0 and 1 per session
+     */
+    public double[] getSessionUtilization() {
+        double elapsedNanos = Math.max(1, System.nanoTime() - createdAtNanos);
+        double[] utilization = new double[embedders.size()];
+        for (int i = 0; i < utilization.length; i++) {
+            utilization[i] = embedders.get(i).busyNanos.sum() / elapsedNanos;
+        }
+        return utilization;
+    }
+
+    /**
+     * Gets the number of requests each session has run
+     * 
+     * @return Request count per session
+     */
+    public long[] getSessionRequestCounts() {
+        long[] counts = new long[embedders.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = embedders.get(i).requestCount.sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Runs a task on an idle embedder, waiting for one to become available
+     */
+    private <T> T execute(EmbedderTask<T> task) throws OrtException {
+        availableEmbedders.acquireUninterruptibly();
+        // A permit guarantees that an idle embedder is queued
+        PooledEmbedder embedder = idleEmbedders.poll();
+        long startTime = System.nanoTime();
+
+        try {
+            return task.run(embedder.embedder);
+        } finally {
+            embedder.busyNanos.add(System.nanoTime() - startTime);
+            embedder.requestCount.increment();
+            idleEmbedders.offer(embedder);
+            availableEmbedders.release();
+        }
+    }
+
+    private void closeEmbedders() {
+        for (PooledEmbedder embedder : embedders) {
+            try {
+                embedder.embedder.close();
+            } catch (Exception e) {
+                // Keep closing the remaining sessions
+            }
+        }
+
+        try {
+            tokenizer.close();
+        } catch (Exception e) {
+            // Nothing left to close
+        }
+    }
+
+    @FunctionalInterface
+    private interface EmbedderTask<T> {
+        T run(M3Embedder embedder) throws OrtException;
+    }
+
+    /**
+     * Embedder together with its usage statistics
+     */
+    private static class PooledEmbedder {
+        public final M3Embedder embedder;
+        public final LongAdder busyNanos = new LongAdder();
+        public final LongAdder requestCount = new LongAdder();
+
+        public PooledEmbedder(M3Embedder embedder) {
+            this.embedder = embedder;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        windowExecutor.shutdown();
+        closeEmbedders();
+    }
+}
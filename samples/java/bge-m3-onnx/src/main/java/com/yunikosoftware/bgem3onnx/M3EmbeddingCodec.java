@@ -0,0 +1,313 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Binary encoding of embedding outputs for storage. All values are 4-byte
+ * little-endian ints and floats, so an encoded output can be read in place
+ * through int and float buffer views.
+ * <p>
+ * Layout: flags, token count, token IDs; if dense: dimension, values; if
+ * sparse: entry count, token IDs, weights; if ColBERT: row count, dimension,
+ * row-major values.
+ */
+public final class M3EmbeddingCodec {
+    private static final int DENSE_FLAG = 1;
+    private static final int SPARSE_FLAG = 2;
+    private static final int COLBERT_FLAG = 4;
+
+    private M3EmbeddingCodec() {
+    }
+
+    /**
+     * Gets the number of bytes needed to encode an output
+     * 
+     * @param output The embedding output
+     * @return The encoded size in bytes
+     */
+    public static int encodedSize(M3EmbeddingOutput output) {
+        long size = 8L + 4L * tokenIds(output).length;
+        if (output.getDenseEmbedding() != null) {
+            size += 4 + 4L * output.getDenseEmbedding().length;
+        }
+        if (output.getSparseVector() != null) {
+            size += 4 + 8L * output.getSparseVector().size();
+        }
+        if (output.getColBertMatrix() != null) {
+            M3ColBertMatrix matrix = output.getColBertMatrix();
+            size += 8 + 4L * matrix.getRowCount() * matrix.getDimension();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Embedding output too large to encode: " + size + " bytes");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Encodes an output into a new array
+     * 
+     * @param output The embedding output
+     * @return The encoded bytes
+     */
+    public static byte[] encode(M3EmbeddingOutput output) {
+        byte[] bytes = new byte[encodedSize(output)];
+        encode(output, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Encodes an output at the position of the target buffer and advances the
+     * position past it
+     * 
+     * @param output The embedding output
+     * @param target Buffer with at least {@link #encodedSize} bytes remaining
+     */
+    public static void encode(M3EmbeddingOutput output, ByteBuffer target) {
+        int size = encodedSize(output);
+        ByteBuffer out = target.slice(target.position(), size).order(ByteOrder.LITTLE_ENDIAN);
+
+        int[] tokenIds = tokenIds(output);
+        float[] dense = output.getDenseEmbedding();
+        M3SparseVector sparse = output.getSparseVector();
+        M3ColBertMatrix colbert = output.getColBertMatrix();
+
+        int flags = (dense != null ? DENSE_FLAG : 0) | (sparse != null ? SPARSE_FLAG : 0)
+                | (colbert != null ? COLBERT_FLAG : 0);
+        out.putInt(flags);
+        putInts(out, tokenIds, tokenIds.length);
+
+        if (dense != null) {
+            putFloats(out, dense, dense.length);
+        }
+        if (sparse != null) {
+            putInts(out, sparse.getTokenIds(), sparse.size());
+            // Weights share the entry count written before the token IDs
+            out.asFloatBuffer().put(sparse.getWeights(), 0, sparse.size());
+            out.position(out.position() + 4 * sparse.size());
+        }
+        if (colbert != null) {
+            int valueCount = colbert.getRowCount() * colbert.getDimension();
+            out.putInt(colbert.getRowCount());
+            out.putInt(colbert.getDimension());
+            out.asFloatBuffer().put(colbert.getData(), 0, valueCount);
+            out.position(out.position() + 4 * valueCount);
+        }
+
+        target.position(target.position() + size);
+    }
+
+    /**
+     * Decodes an output starting at the position of the source buffer into
+     * heap arrays
+     * 
+     * @param source Buffer holding an encoded output
+     * @return The embedding output
+     */
+    public static M3EmbeddingOutput decode(ByteBuffer source) {
+        return wrap(source).toOutput();
+    }
+
+    /**
+     * Wraps an encoded output for reading in place. The view shares the source
+     * buffer's content; nothing is copied until {@link View#toOutput()} is called.
+     * 
+     * @param source Buffer holding an encoded output at its position
+     * @return A view of the encoded output
+     */
+    public static View wrap(ByteBuffer source) {
+        return new View(source.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static int[] tokenIds(M3EmbeddingOutput output) {
+        return output.getTokenIds() != null ? output.getTokenIds() : new int[0];
+    }
+
+    /**
+     * Writes a length prefix followed by the values
+     */
+    private static void putInts(ByteBuffer out, int[] values, int length) {
+        out.putInt(length);
+        out.asIntBuffer().put(values, 0, length);
+        out.position(out.position() + 4 * length);
+    }
+
+    /**
+     * Writes a length prefix followed by the values
+     */
+    private static void putFloats(ByteBuffer out, float[] values, int length) {
+        out.putInt(length);
+        out.asFloatBuffer().put(values, 0, length);
+        out.position(out.position() + 4 * length);
+    }
+
+    /**
+     * Read-only view of an encoded embedding output
+     */
+    public static class View {
+        private final ByteBuffer data;
+        private final int tokenCount;
+        private final int denseOffset;
+        private final int denseDimension;
+        private final int sparseOffset;
+        private final int sparseSize;
+        private final int colbertOffset;
+        private final int colbertRows;
+        private final int colbertDimension;
+        private final int encodedSize;
+
+        private View(ByteBuffer data) {
+            int flags = data.getInt(0);
+            int offset = 4;
+
+            tokenCount = data.getInt(offset);
+            offset += 4 + 4 * tokenCount;
+
+            if ((flags & DENSE_FLAG) != 0) {
+                denseDimension = data.getInt(offset);
+                denseOffset = offset + 4;
+                offset = denseOffset + 4 * denseDimension;
+            } else {
+                denseDimension = 0;
+                denseOffset = -1;
+            }
+
+            if ((flags & SPARSE_FLAG) != 0) {
+                sparseSize = data.getInt(offset);
+                sparseOffset = offset + 4;
+                offset = sparseOffset + 8 * sparseSize;
+            } else {
+                sparseSize = 0;
+                sparseOffset = -1;
+            }
+
+            if ((flags & COLBERT_FLAG) != 0) {
+                colbertRows = data.getInt(offset);
+                colbertDimension = data.getInt(offset + 4);
+                colbertOffset = offset + 8;
+                offset = colbertOffset + 4 * colbertRows * colbertDimension;
+            } else {
+                colbertRows = 0;
+                colbertDimension = 0;
+                colbertOffset = -1;
+            }
+
+            this.encodedSize = offset;
+            this.data = data.slice(0, offset).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Gets the number of bytes of the encoded output
+         */
+        public int getEncodedSize() {
+            return encodedSize;
+        }
+
+        /**
+         * Gets the token IDs
+         */
+        public IntBuffer getTokenIds() {
+            return ints(8, tokenCount);
+        }
+
+        public boolean hasDense() {
+            return denseOffset >= 0;
+        }
+
+        /**
+         * Gets the dense embedding
+         * 
+         * @return Buffer holding the dense embedding, or null if not stored
+         */
+        public FloatBuffer getDenseEmbedding() {
+            return hasDense() ? floats(denseOffset, denseDimension) : null;
+        }
+
+        public boolean hasSparse() {
+            return sparseOffset >= 0;
+        }
+
+        /**
+         * Gets the sparse token IDs in ascending order
+         * 
+         * @return Buffer holding the token IDs, or null if not stored
+         */
+        public IntBuffer getSparseTokenIds() {
+            return hasSparse() ? ints(sparseOffset, sparseSize) : null;
+        }
+
+        /**
+         * Gets the sparse weights, parallel to {@link #getSparseTokenIds()}
+         * 
+         * @return Buffer holding the weights, or null if not stored
+         */
+        public FloatBuffer getSparseWeights() {
+            return hasSparse() ? floats(sparseOffset + 4 * sparseSize, sparseSize) : null;
+        }
+
+        public boolean hasColBert() {
+            return colbertOffset >= 0;
+        }
+
+        public int getColBertRowCount() {
+            return colbertRows;
+        }
+
+        public int getColBertDimension() {
+            return colbertDimension;
+        }
+
+        /**
+         * Gets the ColBERT vectors, row-major
+         * 
+         * @return Buffer holding the ColBERT vectors, or null if not stored
+         */
+        public FloatBuffer getColBertVectors() {
+            return hasColBert() ? floats(colbertOffset, colbertRows * colbertDimension) : null;
+        }
+
+        /**
+         * Copies the encoded output into heap arrays
+         * 
+         * @return The embedding output
+         */
+        public M3EmbeddingOutput toOutput() {
+            int[] tokenIds = new int[tokenCount];
+            getTokenIds().get(tokenIds);
+
+            float[] dense = null;
+            if (hasDense()) {
+                dense = new float[denseDimension];
+                getDenseEmbedding().get(dense);
+            }
+
+            M3SparseVector sparse = null;
+            if (hasSparse()) {
+                int[] ids = new int[sparseSize];
+                float[] weights = new float[sparseSize];
+                getSparseTokenIds().get(ids);
+                getSparseWeights().get(weights);
+                sparse = M3SparseVector.ofSorted(ids, weights);
+            }
+
+            M3ColBertMatrix colbert = null;
+            if (hasColBert()) {
+                float[] values = new float[colbertRows * colbertDimension];
+                getColBertVectors().get(values);
+                colbert = new M3ColBertMatrix(values, colbertRows, colbertDimension);
+            }
+
+            return new M3EmbeddingOutput(dense, sparse, colbert, tokenIds);
+        }
+
+        private IntBuffer ints(int offset, int length) {
+            return data.slice(offset, 4 * length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().asReadOnlyBuffer();
+        }
+
+        private FloatBuffer floats(int offset, int length) {
+            return data.slice(offset, 4 * length).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().asReadOnlyBuffer();
+        }
+    }
+}
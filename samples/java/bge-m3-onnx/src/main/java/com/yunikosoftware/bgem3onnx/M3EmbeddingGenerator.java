@@ -0,0 +1,55 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Common interface of components that generate BGE-M3 embeddings, such as a
+ * single embedder or a pool of embedders
+ */
+public interface M3EmbeddingGenerator extends AutoCloseable {
+    /**
+     * Generates all embeddings (dense, sparse, ColBERT) for the input text
+     * 
+     * @param text The input text
+     * @return The full embedding output containing all vector types
+     * @throws OrtException If there's an error during inference
+     */
+    default M3EmbeddingOutput generateEmbeddings(String text) throws OrtException {
+        return generateEmbeddings(text, M3OutputType.ALL);
+    }
+
+    /**
+     * Generates the requested embedding types for the input text
+     * 
+     * @param text        The input text
+     * @param outputTypes The embedding types to compute
+     * @return The embedding output, with null for types that were not requested
+     * @throws OrtException If there's an error during inference
+     */
+    M3EmbeddingOutput generateEmbeddings(String text, Set<M3OutputType> outputTypes) throws OrtException;
+
+    /**
+     * Generates all embeddings (dense, sparse, ColBERT) for a batch of texts
+     * 
+     * @param texts The input texts
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during inference
+     */
+    default List<M3EmbeddingOutput> generateEmbeddings(List<String> texts) throws OrtException {
+        return generateEmbeddings(texts, M3OutputType.ALL);
+    }
+
+    /**
+     * Generates the requested embedding types for a batch of texts
+     * 
+     * @param texts       The input texts
+     * @param outputTypes The embedding types to compute
+     * @return The embedding outputs, in the same order as the input texts, with
+     *         null for types that were not requested
+     * @throws OrtException If there's an error during inference
+     */
+    List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException;
+}
@@ -4,16 +4,19 @@ import java.util.Map;
 
 /**
  * Output container for BGE-M3 embeddings including dense, sparse, and ColBERT
- * vectors
+ * vectors. Embedding types that were not requested (see {@link M3OutputType})
+ * are null.
  */
 public class M3EmbeddingOutput {
     private final float[] denseEmbedding;
-    private final Map<Integer, Float> sparseWeights;
-    private final float[][] colBertVectors;
+    private final M3SparseVector sparseVector;
+    private final M3ColBertMatrix colBertMatrix;
     private final int[] tokenIds;
 
     /**
-     * Creates a new M3EmbeddingOutput instance
+     * Creates a new M3EmbeddingOutput instance from a sparse weight map and
+     * per-token ColBERT vectors. Both are copied into the primitive
+     * representations, so later changes to the arguments are not reflected.
      * 
      * @param denseEmbedding Dense embedding vector (sentence-level representation)
      * @param sparseWeights  Sparse embedding weights (token-level weights for
@@ -21,40 +24,107 @@ public class M3EmbeddingOutput {
      * @param colBertVectors ColBERT vectors (multi-vector representation, one per
      *                       token)
      * @param tokenIds       Original token IDs from the tokenizer
+     * @deprecated Use {@link #fromArrays(float[], Map, float[][], int[])}, or the
+     *             {@link M3SparseVector} and {@link M3ColBertMatrix} constructor
      */
+    @Deprecated
     public M3EmbeddingOutput(float[] denseEmbedding, Map<Integer, Float> sparseWeights,
             float[][] colBertVectors, int[] tokenIds) {
+        this(denseEmbedding, toSparseVector(sparseWeights), toColBertMatrix(colBertVectors), tokenIds);
+    }
+
+    /**
+     * Creates a new M3EmbeddingOutput instance
+     * 
+     * @param denseEmbedding Dense embedding vector (sentence-level representation)
+     * @param sparseVector   Sparse embedding weights (token-level weights for
+     *                       lexical matching)
+     * @param colBertMatrix  ColBERT vectors as a contiguous row-major matrix
+     * @param tokenIds       Original token IDs from the tokenizer
+     */
+    public M3EmbeddingOutput(float[] denseEmbedding, M3SparseVector sparseVector,
+            M3ColBertMatrix colBertMatrix, int[] tokenIds) {
         this.denseEmbedding = denseEmbedding;
-        this.sparseWeights = sparseWeights;
-        this.colBertVectors = colBertVectors;
+        this.sparseVector = sparseVector;
+        this.colBertMatrix = colBertMatrix;
         this.tokenIds = tokenIds;
     }
 
+    /**
+     * Creates an output from a sparse weight map and per-token ColBERT vectors
+     * 
+     * @param denseEmbedding Dense embedding vector, or null
+     * @param sparseWeights  Map of token ID to weight, or null
+     * @param colBertVectors ColBERT vectors, one per token, or null
+     * @param tokenIds       Original token IDs from the tokenizer
+     * @return The embedding output
+     */
+    public static M3EmbeddingOutput fromArrays(float[] denseEmbedding, Map<Integer, Float> sparseWeights,
+            float[][] colBertVectors, int[] tokenIds) {
+        return new M3EmbeddingOutput(denseEmbedding, toSparseVector(sparseWeights), toColBertMatrix(colBertVectors),
+                tokenIds);
+    }
+
+    /**
+     * Creates an output that holds only a dense embedding
+     * 
+     * @param denseEmbedding Dense embedding vector
+     * @param tokenIds       Original token IDs from the tokenizer
+     * @return The embedding output, with null sparse weights and ColBERT vectors
+     */
+    public static M3EmbeddingOutput ofDense(float[] denseEmbedding, int[] tokenIds) {
+        return new M3EmbeddingOutput(denseEmbedding, (M3SparseVector) null, (M3ColBertMatrix) null, tokenIds);
+    }
+
     /**
      * Gets the dense embedding vector (sentence-level representation)
      * 
-     * @return Dense embedding as float array
+     * @return Dense embedding as float array, or null if not requested
      */
     public float[] getDenseEmbedding() {
         return denseEmbedding;
     }
 
     /**
-     * Gets the sparse embedding weights (token-level weights for lexical matching)
+     * Gets the sparse embedding weights (token-level weights for lexical matching).
+     * The map is a read-only view of {@link #getSparseVector()}, created on each
+     * call; earlier versions returned a mutable HashMap, so copy it into one
+     * before modifying it.
      * 
-     * @return Map of token ID to weight
+     * @return Read-only map of token ID to weight, or null if not requested
      */
     public Map<Integer, Float> getSparseWeights() {
-        return sparseWeights;
+        return sparseVector != null ? sparseVector.asMap() : null;
+    }
+
+    /**
+     * Gets the sparse embedding weights as a primitive sparse vector
+     * 
+     * @return Sparse vector sorted by token ID, or null if not requested
+     */
+    public M3SparseVector getSparseVector() {
+        return sparseVector;
     }
 
     /**
-     * Gets the ColBERT vectors (multi-vector representation, one per token)
+     * Gets the ColBERT vectors (multi-vector representation, one per token). Each
+     * call copies the rows out of {@link #getColBertMatrix()} into new arrays,
+     * so changes to the returned arrays do not affect this output and repeated
+     * calls allocate again; prefer {@link #getColBertMatrix()} on hot paths.
      * 
-     * @return Array of ColBERT vectors
+     * @return Array of ColBERT vectors, or null if not requested
      */
     public float[][] getColBertVectors() {
-        return colBertVectors;
+        return colBertMatrix != null ? colBertMatrix.toArray() : null;
+    }
+
+    /**
+     * Gets the ColBERT vectors as a contiguous row-major matrix
+     * 
+     * @return ColBERT matrix, or null if not requested
+     */
+    public M3ColBertMatrix getColBertMatrix() {
+        return colBertMatrix;
     }
 
     /**
@@ -65,4 +135,12 @@ public class M3EmbeddingOutput {
     public int[] getTokenIds() {
         return tokenIds;
     }
-}
\ No newline at end of file
+
+    private static M3SparseVector toSparseVector(Map<Integer, Float> sparseWeights) {
+        return sparseWeights != null ? M3SparseVector.fromMap(sparseWeights) : null;
+    }
+
+    private static M3ColBertMatrix toColBertMatrix(float[][] colBertVectors) {
+        return colBertVectors != null ? M3ColBertMatrix.fromArray(colBertVectors) : null;
+    }
+}
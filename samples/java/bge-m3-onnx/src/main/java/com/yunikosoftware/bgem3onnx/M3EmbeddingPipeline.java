@@ -0,0 +1,337 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Staged pipeline for bulk embedding. Texts are split into batches that flow
+ * through three stages, each with its own worker threads: tokenization, model
+ * inference and post-processing (splitting the model outputs per text). While
+ * the model runs on one batch, the next batch is tokenized and the previous one
+ * is post-processed, so the model stage does not sit idle during the cheap
+ * stages.
+ *
+ * Stages are connected by bounded queues. When a stage falls behind, the stage
+ * before it blocks on the full queue, down to the caller submitting batches, so
+ * memory use stays bounded however many texts are submitted.
+ */
+public class M3EmbeddingPipeline implements AutoCloseable {
+    private static final long OFFER_TIMEOUT_MILLIS = 50;
+
+    private final M3Embedder embedder;
+    private final int batchSize;
+    private final BlockingQueue<Batch> tokenizeQueue;
+    private final BlockingQueue<Batch> inferenceQueue;
+    private final BlockingQueue<Batch> postProcessQueue;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Initializes a new instance of the M3EmbeddingPipeline class with batches of
+     * 32 texts, two tokenizer threads, one inference thread, two post-processing
+     * threads and room for two batches between stages
+     *
+     * @param embedder The embedder whose tokenizer and model session run the
+     *                 stages. It is closed together with this instance.
+     */
+    public M3EmbeddingPipeline(M3Embedder embedder) {
+        this(embedder, 32, 2, 1, 2, 2);
+    }
+
+    /**
+     * Initializes a new instance of the M3EmbeddingPipeline class
+     *
+     * @param embedder           The embedder whose tokenizer and model session run
+     *                           the stages. It is closed together with this
+     *                           instance.
+     * @param batchSize          Maximum number of texts per model call
+     * @param tokenizerThreads   Number of threads tokenizing batches
+     * @param inferenceThreads   Number of threads running the model. Each runs
+     *                           the shared model session concurrently, so more
+     *                           than one only pays off when a single run does not
+     *                           use all intra-op threads.
+     * @param postProcessThreads Number of threads splitting model outputs
+     * @param queueCapacity      Maximum number of batches waiting in front of each
+     *                           stage
+     */
+    public M3EmbeddingPipeline(M3Embedder embedder, int batchSize, int tokenizerThreads, int inferenceThreads,
+            int postProcessThreads, int queueCapacity) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        if (tokenizerThreads < 1 || inferenceThreads < 1 || postProcessThreads < 1) {
+            throw new IllegalArgumentException("Every stage needs at least one thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+
+        this.embedder = embedder;
+        this.batchSize = batchSize;
+        this.tokenizeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.inferenceQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.postProcessQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        startWorkers("tokenize", tokenizerThreads, tokenizeQueue, this::tokenize);
+        startWorkers("inference", inferenceThreads, inferenceQueue, this::runModel);
+        startWorkers("post-process", postProcessThreads, postProcessQueue, this::postProcess);
+    }
+
+    /**
+     * Generates all embeddings (dense, sparse, ColBERT) for many texts
+     *
+     * @param texts The input texts
+     * @return The embedding outputs, in the same order as the input texts
+     * @throws OrtException If there's an error during tokenization or inference
+     */
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts) throws OrtException {
+        return generateEmbeddings(texts, M3OutputType.ALL);
+    }
+
+    /**
+     * Generates the requested embedding types for many texts. The texts are split
+     * into batches in input order and fed into the pipeline; the call returns once
+     * every batch has left the last stage. Several callers may use the pipeline
+     * at the same time, their batches are interleaved.
+     *
+     * @param texts       The input texts
+     * @param outputTypes The embedding types to compute
+     * @return The embedding outputs, in the same order as the input texts, with
+     *         null for types that were not requested
+     * @throws OrtException If there's an error during tokenization or inference
+     */
+    public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, Set<M3OutputType> outputTypes)
+            throws OrtException {
+        if (outputTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one output type must be requested");
+        }
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int batchCount = (texts.size() + batchSize - 1) / batchSize;
+        Job job = new Job(texts.size(), batchCount, outputTypes);
+
+        try {
+            for (int offset = 0; offset < texts.size(); offset += batchSize) {
+                List<String> batchTexts = texts.subList(offset, Math.min(offset + batchSize, texts.size()));
+                Batch batch = new Batch(job, offset, batchTexts);
+                // Blocks while the tokenizer stage is behind
+                if (!enqueue(tokenizeQueue, batch)) {
+                    throw closedException();
+                }
+
+                // close() may have drained the queue between the check and the offer
+                if (closed && tokenizeQueue.remove(batch)) {
+                    throw closedException();
+                }
+            }
+
+            job.remainingBatches.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrtException("Interrupted while waiting for the embedding pipeline");
+        }
+
+        if (job.error != null) {
+            if (job.error instanceof OrtException) {
+                throw (OrtException) job.error;
+            }
+            if (job.error instanceof RuntimeException) {
+                throw (RuntimeException) job.error;
+            }
+            if (job.error instanceof Error) {
+                throw (Error) job.error;
+            }
+            throw new OrtException("Embedding pipeline failed: " + job.error.getMessage());
+        }
+
+        return new ArrayList<>(Arrays.asList(job.outputs));
+    }
+
+    /**
+     * Gets the number of batches waiting in front of each stage, in stage order
+     * (tokenization, inference, post-processing). A stage whose queue stays full
+     * is slower than the stage after it.
+     *
+     * @return The queue lengths
+     */
+    public int[] getQueuedBatchCounts() {
+        return new int[] { tokenizeQueue.size(), inferenceQueue.size(), postProcessQueue.size() };
+    }
+
+    private void tokenize(Batch batch) throws Exception {
+        batch.tokenIds = embedder.tokenize(batch.texts);
+        if (!enqueue(inferenceQueue, batch)) {
+            batch.fail(closedException());
+        }
+    }
+
+    private void runModel(Batch batch) throws Exception {
+        batch.result = embedder.runModelResult(batch.tokenIds, batch.job.outputTypes);
+        // The token IDs are now referenced by the result only
+        batch.tokenIds = null;
+        if (!enqueue(postProcessQueue, batch)) {
+            batch.fail(closedException());
+        }
+    }
+
+    private void postProcess(Batch batch) throws Exception {
+        M3EmbeddingResult result = batch.result;
+        batch.result = null;
+        try (result) {
+            for (int i = 0; i < result.size(); i++) {
+                batch.job.outputs[batch.offset + i] = result.toOutput(i);
+            }
+        }
+        batch.complete();
+    }
+
+    /**
+     * Puts a batch into a stage queue, waiting while the queue is full
+     *
+     * @return false if the pipeline was closed before the batch could be queued
+     */
+    private boolean enqueue(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+        while (!queue.offer(batch, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startWorkers(String stageName, int threadCount, BlockingQueue<Batch> queue, Stage stage) {
+        for (int i = 0; i < threadCount; i++) {
+            Thread worker = new Thread(() -> runStage(queue, stage), "m3-pipeline-" + stageName + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    private void runStage(BlockingQueue<Batch> queue, Stage stage) {
+        while (!closed) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                // Interrupted by close()
+                break;
+            }
+
+            // Skip the remaining batches of a job that already failed
+            if (batch.job.error != null) {
+                batch.fail(null);
+                continue;
+            }
+
+            try {
+                stage.run(batch);
+            } catch (InterruptedException e) {
+                batch.fail(closedException());
+                break;
+            } catch (Throwable e) {
+                // Errors fail the job as well, the worker keeps serving other jobs
+                batch.fail(e);
+            }
+        }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("M3EmbeddingPipeline is closed");
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run(Batch batch) throws Exception;
+    }
+
+    /**
+     * One generateEmbeddings call: the outputs being filled in and the number of
+     * batches still in flight
+     */
+    private static class Job {
+        public final M3EmbeddingOutput[] outputs;
+        public final CountDownLatch remainingBatches;
+        public final Set<M3OutputType> outputTypes;
+        public volatile Throwable error;
+
+        public Job(int textCount, int batchCount, Set<M3OutputType> outputTypes) {
+            this.outputs = new M3EmbeddingOutput[textCount];
+            this.remainingBatches = new CountDownLatch(batchCount);
+            this.outputTypes = outputTypes;
+        }
+    }
+
+    /**
+     * A slice of a job's texts together with the state it carries between stages
+     */
+    private static class Batch {
+        public final Job job;
+        public final int offset;
+        public final List<String> texts;
+        public List<int[]> tokenIds;
+        public M3EmbeddingResult result;
+
+        public Batch(Job job, int offset, List<String> texts) {
+            this.job = job;
+            this.offset = offset;
+            this.texts = texts;
+        }
+
+        /**
+         * Marks the batch as done. The latch publishes the outputs written by the
+         * post-processing stage to the thread waiting on the job.
+         */
+        public void complete() {
+            job.remainingBatches.countDown();
+        }
+
+        /**
+         * Records the first failure of the job, releases the native outputs held by
+         * the batch and marks it as done
+         */
+        public void fail(Throwable e) {
+            if (e != null && job.error == null) {
+                job.error = e;
+            }
+            try {
+                if (result != null) {
+                    result.close();
+                    result = null;
+                }
+            } finally {
+                complete();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // Fail whatever is still queued so that no caller waits forever
+        for (BlockingQueue<Batch> queue : List.of(tokenizeQueue, inferenceQueue, postProcessQueue)) {
+            Batch batch;
+            while ((batch = queue.poll()) != null) {
+                batch.fail(closedException());
+            }
+        }
+
+        embedder.close();
+    }
+}
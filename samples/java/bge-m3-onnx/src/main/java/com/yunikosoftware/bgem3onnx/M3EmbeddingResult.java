@@ -0,0 +1,238 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Model outputs of one batch. Outputs with a fixed width are written by the
+ * model straight into direct buffers and read from there in place; other
+ * outputs stay in the native ONNX Runtime result and are copied out of native
+ * memory the first time any row reads them. Per-row dense, sparse and ColBERT
+ * values are only built when requested. Buffer views give access to a row
+ * without building arrays.
+ * <p>
+ * Instances are not thread-safe. Close the result to hand the buffers back for
+ * the next run; arrays, sparse vectors and matrices already returned stay valid
+ * after closing, buffer views do not.
+ */
+public class M3EmbeddingResult implements AutoCloseable {
+    private final OrtSession.Result modelResults;
+    private final List<int[]> tokenIds;
+    private final int sequenceLength;
+    private final Set<M3OutputType> outputTypes;
+    private final Runnable releaseBuffers;
+
+    private final FloatBuffer[] outputBuffers;
+    private final long[][] outputShapes;
+    private final float[][] denseEmbeddings;
+    private final M3SparseVector[] sparseVectors;
+    private final M3ColBertMatrix[] colBertMatrices;
+    private boolean closed;
+
+    /**
+     * Initializes a new instance of the M3EmbeddingResult class, taking ownership of
+     * the model results
+     * 
+     * @param modelResults   Results of the model run, holding the outputs that were
+     *                       not bound to a buffer
+     * @param tokenIds       Token IDs of each row, without padding
+     * @param sequenceLength Padded sequence length of the batch
+     * @param outputTypes    The outputs computed in the model run
+     * @param outputBuffers  Buffer of each bound output by M3OutputType ordinal,
+     *                       null for outputs in the model results
+     * @param outputShapes   Shape of each bound output by M3OutputType ordinal
+     * @param releaseBuffers Called once when the result is closed, after which the
+     *                       buffers may be reused
+     */
+    M3EmbeddingResult(OrtSession.Result modelResults, List<int[]> tokenIds, int sequenceLength,
+            Set<M3OutputType> outputTypes, FloatBuffer[] outputBuffers, long[][] outputShapes,
+            Runnable releaseBuffers) {
+        this.modelResults = modelResults;
+        this.tokenIds = tokenIds;
+        this.sequenceLength = sequenceLength;
+        this.outputTypes = Collections.unmodifiableSet(EnumSet.copyOf(outputTypes));
+        this.outputBuffers = outputBuffers;
+        this.outputShapes = outputShapes;
+        this.releaseBuffers = releaseBuffers;
+        this.denseEmbeddings = new float[tokenIds.size()][];
+        this.sparseVectors = new M3SparseVector[tokenIds.size()];
+        this.colBertMatrices = new M3ColBertMatrix[tokenIds.size()];
+    }
+
+    /**
+     * Gets the number of texts in the result
+     */
+    public int size() {
+        return tokenIds.size();
+    }
+
+    /**
+     * Gets the embedding types that were computed
+     */
+    public Set<M3OutputType> getOutputTypes() {
+        return outputTypes;
+    }
+
+    /**
+     * Gets the token IDs of a text
+     * 
+     * @param index Index of the text in the batch
+     * @return Array of token IDs
+     */
+    public int[] getTokenIds(int index) {
+        return tokenIds.get(index);
+    }
+
+    /**
+     * Gets the dense embedding of a text
+     * 
+     * @param index Index of the text in the batch
+     * @return Dense embedding as float array
+     * @throws OrtException If the output cannot be read
+     */
+    public float[] getDenseEmbedding(int index) throws OrtException {
+        if (denseEmbeddings[index] == null) {
+            denseEmbeddings[index] = M3OutputExtractor.extractDense(getOutputBuffer(M3OutputType.DENSE),
+                    outputShapes[M3OutputType.DENSE.ordinal()], index);
+        }
+        return denseEmbeddings[index];
+    }
+
+    /**
+     * Gets a read-only view of the dense embedding of a text without copying it
+     * into an array. The view points into the direct buffer the model wrote, or
+     * into the heap copy of the output when the model does not declare the output
+     * width. It is only valid until the result is closed, after which the buffer
+     * is reused by later runs.
+     * 
+     * @param index Index of the text in the batch
+     * @return Buffer holding the dense embedding
+     * @throws OrtException If the output cannot be read
+     */
+    public FloatBuffer getDenseBuffer(int index) throws OrtException {
+        FloatBuffer buffer = getOutputBuffer(M3OutputType.DENSE);
+        int hiddenSize = (int) outputShapes[M3OutputType.DENSE.ordinal()][1];
+        return view(buffer, index * hiddenSize, hiddenSize);
+    }
+
+    /**
+     * Gets the sparse weights of a text
+     * 
+     * @param index Index of the text in the batch
+     * @return Sparse vector sorted by token ID
+     * @throws OrtException If the output cannot be read
+     */
+    public M3SparseVector getSparseVector(int index) throws OrtException {
+        if (sparseVectors[index] == null) {
+            sparseVectors[index] = M3OutputExtractor.extractSparseWeights(getOutputBuffer(M3OutputType.SPARSE),
+                    outputShapes[M3OutputType.SPARSE.ordinal()], index, tokenIds.get(index));
+        }
+        return sparseVectors[index];
+    }
+
+    /**
+     * Gets the ColBERT vectors of a text
+     * 
+     * @param index Index of the text in the batch
+     * @return ColBERT matrix, one row per token after [CLS]
+     * @throws OrtException If the output cannot be read
+     */
+    public M3ColBertMatrix getColBertMatrix(int index) throws OrtException {
+        if (colBertMatrices[index] == null) {
+            colBertMatrices[index] = M3OutputExtractor.extractColBertVectors(getOutputBuffer(M3OutputType.COLBERT),
+                    outputShapes[M3OutputType.COLBERT.ordinal()], index, sequenceLength,
+                    tokenIds.get(index).length);
+        }
+        return colBertMatrices[index];
+    }
+
+    /**
+     * Gets a read-only view of the ColBERT vectors of a text, row-major, without
+     * copying them into an array. Like {@link #getDenseBuffer(int)}, the view is
+     * only valid until the result is closed.
+     * 
+     * @param index Index of the text in the batch
+     * @return Buffer holding the ColBERT vectors of the real tokens
+     * @throws OrtException If the output cannot be read
+     */
+    public FloatBuffer getColBertBuffer(int index) throws OrtException {
+        FloatBuffer buffer = getOutputBuffer(M3OutputType.COLBERT);
+        long[] shape = outputShapes[M3OutputType.COLBERT.ordinal()];
+        int colbertLen = (int) shape[1];
+        int hiddenSize = (int) shape[2];
+        int positionOffset = Math.max(0, sequenceLength - colbertLen);
+        int vectorCount = Math.max(0, Math.min(colbertLen, tokenIds.get(index).length - positionOffset));
+        return view(buffer, index * colbertLen * hiddenSize, vectorCount * hiddenSize);
+    }
+
+    /**
+     * Builds the embedding output of a text with every computed type
+     * 
+     * @param index Index of the text in the batch
+     * @return The embedding output, with null for types that were not requested
+     * @throws OrtException If an output cannot be read
+     */
+    public M3EmbeddingOutput toOutput(int index) throws OrtException {
+        return new M3EmbeddingOutput(
+                outputTypes.contains(M3OutputType.DENSE) ? getDenseEmbedding(index) : null,
+                outputTypes.contains(M3OutputType.SPARSE) ? getSparseVector(index) : null,
+                outputTypes.contains(M3OutputType.COLBERT) ? getColBertMatrix(index) : null,
+                tokenIds.get(index));
+    }
+
+    /**
+     * Builds the embedding outputs of all texts
+     * 
+     * @return The embedding outputs, in batch order
+     * @throws OrtException If an output cannot be read
+     */
+    public List<M3EmbeddingOutput> toOutputs() throws OrtException {
+        List<M3EmbeddingOutput> outputs = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            outputs.add(toOutput(i));
+        }
+        return outputs;
+    }
+
+    /**
+     * Gets the flat buffer of an output: the direct buffer the model wrote into,
+     * or for outputs not bound to a buffer a heap copy made from the native result
+     * on first use
+     */
+    private FloatBuffer getOutputBuffer(M3OutputType outputType) throws OrtException {
+        if (closed) {
+            throw new IllegalStateException("M3EmbeddingResult is closed");
+        }
+        if (!outputTypes.contains(outputType)) {
+            throw new IllegalStateException("Output was not requested: " + outputType.getOutputName());
+        }
+
+        int slot = outputType.ordinal();
+        if (outputBuffers[slot] == null) {
+            OnnxTensor tensor = M3OutputExtractor.getTensor(modelResults, outputType);
+            outputShapes[slot] = M3OutputExtractor.getShape(tensor);
+            outputBuffers[slot] = tensor.getFloatBuffer();
+        }
+        return outputBuffers[slot];
+    }
+
+    private static FloatBuffer view(FloatBuffer buffer, int offset, int length) {
+        return buffer.slice(offset, length).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            modelResults.close();
+            releaseBuffers.run();
+        }
+    }
+}
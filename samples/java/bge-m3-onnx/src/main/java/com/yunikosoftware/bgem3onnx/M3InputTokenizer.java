@@ -0,0 +1,287 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns texts into model-ready token sequences: applies the configured token
+ * limit and serves repeated texts from the token cache. Runs without a model
+ * session, so an embedder pool tokenizes before taking a session and all of
+ * its embedders share one instance, and with it one token cache. Thread-safe
+ * if the underlying tokenizer is.
+ */
+final class M3InputTokenizer {
+    // Characters kept per allowed token before tokenizing. Vocabulary pieces are at
+    // most 16 characters long, so a text cut to this budget still yields more than
+    // the maximum number of tokens unless it is mostly whitespace.
+    private static final int MAX_CHARS_PER_TOKEN = 32;
+    // How far back from the character budget a whitespace is searched for
+    private static final int MAX_WORD_BOUNDARY_SEARCH = 64;
+
+    private final M3Tokenizer tokenizer;
+    private final int maxTokens;
+    private final M3LruCache<String, int[]> tokenCache;
+
+    /**
+     * Initializes a new instance of the M3InputTokenizer class
+     *
+     * @param tokenizer The tokenizer. It is not closed by this instance.
+     * @param config    Configuration with the token limit and token cache size
+     */
+    M3InputTokenizer(M3Tokenizer tokenizer, M3EmbedderConfig config) {
+        if (config.getMaxTokens() != 0 && config.getMaxTokens() < 2) {
+            throw new IllegalArgumentException("maxTokens must be 0 or at least 2 to keep [CLS] and [SEP]");
+        }
+
+        this.tokenizer = tokenizer;
+        this.maxTokens = config.getMaxTokens();
+        this.tokenCache = config.getTokenCacheMaxBytes() > 0
+                ? new M3LruCache<>(0, config.getTokenCacheMaxBytes(), M3InputTokenizer::estimateTokenCacheBytes)
+                : null;
+    }
+
+    /**
+     * Gets the number of texts whose token IDs were found in the token cache
+     */
+    long getTokenCacheHitCount() {
+        return tokenCache != null ? tokenCache.hitCount() : 0;
+    }
+
+    /**
+     * Gets the number of texts that had to run through the tokenizer while the
+     * token cache was enabled
+     */
+    long getTokenCacheMissCount() {
+        return tokenCache != null ? tokenCache.missCount() : 0;
+    }
+
+    /**
+     * Returns the token IDs of each text in sequence order, taking them from the
+     * token cache where possible and tokenizing the rest with a single tokenizer
+     * call
+     */
+    List<int[]> tokenize(List<String> texts) throws OrtException {
+        if (tokenCache == null) {
+            return truncateTokens(tokenizer.tokenize(truncateTexts(texts)));
+        }
+
+        List<int[]> tokenIds = new ArrayList<>(texts.size());
+        List<String> missingTexts = new ArrayList<>();
+        List<Integer> missingPositions = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            int[] cached = tokenCache.get(texts.get(i));
+            // Copy so that callers changing an output's token IDs cannot alter the cache
+            tokenIds.add(cached != null ? cached.clone() : null);
+            if (cached == null) {
+                missingTexts.add(texts.get(i));
+                missingPositions.add(i);
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            List<int[]> tokenized = truncateTokens(tokenizer.tokenize(truncateTexts(missingTexts)));
+            for (int i = 0; i < tokenized.size(); i++) {
+                int[] ids = tokenized.get(i);
+                tokenCache.put(missingTexts.get(i), ids.clone());
+                tokenIds.set(missingPositions.get(i), ids);
+            }
+        }
+
+        return tokenIds;
+    }
+
+    /**
+     * Tokenizes a document without truncation and splits it into windows
+     */
+    M3TokenWindows tokenizeDocument(String text, int windowTokens, int overlapTokens) throws OrtException {
+        M3TokenWindows.validate(windowTokens, overlapTokens);
+        if (maxTokens != 0 && windowTokens > maxTokens) {
+            throw new IllegalArgumentException("windowTokens must not exceed maxTokens (" + maxTokens + ")");
+        }
+
+        return M3TokenWindows.split(tokenizer.tokenize(List.of(text)).get(0), windowTokens, overlapTokens);
+    }
+
+    /**
+     * Tokenizes a document for late chunking with one chunk per sentence, using
+     * the sentence boundary rules of the given locale
+     */
+    SpanTokens tokenizeSentences(String text, Locale locale) throws OrtException {
+        BreakIterator sentences = BreakIterator.getSentenceInstance(locale);
+        sentences.setText(text);
+
+        List<Integer> boundaries = new ArrayList<>();
+        for (int boundary = sentences.first(); boundary != BreakIterator.DONE; boundary = sentences.next()) {
+            boundaries.add(boundary);
+        }
+
+        int spanCount = Math.max(0, boundaries.size() - 1);
+        int[] spanStarts = new int[spanCount];
+        int[] spanEnds = new int[spanCount];
+        for (int i = 0; i < spanCount; i++) {
+            spanStarts[i] = boundaries.get(i);
+            spanEnds[i] = boundaries.get(i + 1);
+        }
+        return tokenizeSpans(text, spanStarts, spanEnds);
+    }
+
+    /**
+     * Tokenizes a document for late chunking. Each span, and each gap between
+     * spans, is tokenized separately and the content tokens are concatenated into
+     * one sequence between [CLS] and [SEP], which gives the exact token range of
+     * every span.
+     */
+    SpanTokens tokenizeSpans(String text, int[] spanStarts, int[] spanEnds) throws OrtException {
+        if (spanStarts.length != spanEnds.length) {
+            throw new IllegalArgumentException("Expected a start and end character for each span");
+        }
+
+        // Split the text into segments: gaps before the spans, the spans themselves
+        // and the trailing gap. chunkSegments maps each span to its segment.
+        List<String> segments = new ArrayList<>();
+        int[] chunkSegments = new int[spanStarts.length];
+        int position = 0;
+        for (int i = 0; i < spanStarts.length; i++) {
+            if (spanStarts[i] < position || spanEnds[i] < spanStarts[i] || spanEnds[i] > text.length()) {
+                throw new IllegalArgumentException("Span " + i + " [" + spanStarts[i] + ", " + spanEnds[i]
+                        + ") is out of order, overlapping or outside the text");
+            }
+            if (spanStarts[i] > position) {
+                segments.add(text.substring(position, spanStarts[i]));
+            }
+            chunkSegments[i] = segments.size();
+            segments.add(text.substring(spanStarts[i], spanEnds[i]));
+            position = spanEnds[i];
+        }
+        if (position < text.length() || segments.isEmpty()) {
+            segments.add(text.substring(position));
+        }
+
+        // Concatenate the content tokens of all segments between one [CLS] and [SEP]
+        List<int[]> segmentTokens = tokenizer.tokenize(segments);
+        int[] segmentStarts = new int[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            segmentStarts[i + 1] = segmentStarts[i] + Math.max(0, segmentTokens.get(i).length - 2);
+        }
+        int contentLength = segmentStarts[segments.size()];
+        if (maxTokens != 0 && contentLength + 2 > maxTokens) {
+            throw new IllegalArgumentException("The document has " + (contentLength + 2)
+                    + " tokens, more than maxTokens (" + maxTokens + ")");
+        }
+
+        int[] tokenIds = new int[contentLength + 2];
+        tokenIds[0] = M3SpecialTokens.CLS_TOKEN_ID;
+        for (int i = 0; i < segments.size(); i++) {
+            int length = segmentStarts[i + 1] - segmentStarts[i];
+            System.arraycopy(segmentTokens.get(i), 1, tokenIds, 1 + segmentStarts[i], length);
+        }
+        tokenIds[tokenIds.length - 1] = M3SpecialTokens.SEP_TOKEN_ID;
+
+        int[] chunkStarts = new int[spanStarts.length];
+        int[] chunkEnds = new int[spanStarts.length];
+        for (int i = 0; i < chunkSegments.length; i++) {
+            chunkStarts[i] = segmentStarts[chunkSegments[i]];
+            chunkEnds[i] = segmentStarts[chunkSegments[i] + 1];
+        }
+        return new SpanTokens(tokenIds, chunkStarts, chunkEnds);
+    }
+
+    /**
+     * Cuts texts far longer than the token limit down to a character budget, so
+     * that the tokenizer does not process text that would be truncated anyway
+     */
+    private List<String> truncateTexts(List<String> texts) {
+        if (maxTokens == 0) {
+            return texts;
+        }
+
+        int maxChars = (int) Math.min(Integer.MAX_VALUE, (long) maxTokens * MAX_CHARS_PER_TOKEN);
+        List<String> truncated = null;
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text.length() > maxChars) {
+                if (truncated == null) {
+                    truncated = new ArrayList<>(texts);
+                }
+                truncated.set(i, truncateText(text, maxChars));
+            }
+        }
+        return truncated != null ? truncated : texts;
+    }
+
+    /**
+     * Cuts a text to at most maxChars characters, preferably at a whitespace so that
+     * the last word is not split into different tokens, and never between the two
+     * halves of a surrogate pair
+     */
+    static String truncateText(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+
+        int searchEnd = Math.max(0, maxChars - MAX_WORD_BOUNDARY_SEARCH);
+        for (int end = maxChars; end > searchEnd; end--) {
+            if (Character.isWhitespace(text.charAt(end))) {
+                return text.substring(0, end);
+            }
+        }
+
+        int end = maxChars;
+        if (Character.isLowSurrogate(text.charAt(end)) && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * Truncates token sequences longer than the token limit, keeping [CLS] at the
+     * start and ending the sequence with [SEP]
+     */
+    private List<int[]> truncateTokens(List<int[]> tokenIds) {
+        if (maxTokens == 0) {
+            return tokenIds;
+        }
+
+        List<int[]> truncated = null;
+        for (int i = 0; i < tokenIds.size(); i++) {
+            int[] ids = tokenIds.get(i);
+            if (ids.length > maxTokens) {
+                if (truncated == null) {
+                    truncated = new ArrayList<>(tokenIds);
+                }
+                int[] truncatedIds = Arrays.copyOf(ids, maxTokens);
+                truncatedIds[maxTokens - 1] = M3SpecialTokens.SEP_TOKEN_ID;
+                truncated.set(i, truncatedIds);
+            }
+        }
+        return truncated != null ? truncated : tokenIds;
+    }
+
+    /**
+     * Estimates the heap size of a token cache entry
+     */
+    private static long estimateTokenCacheBytes(String text, int[] tokenIds) {
+        // Object headers and references of the text, array and map node
+        return 96 + 2L * text.length() + 4L * tokenIds.length;
+    }
+
+    /**
+     * Token sequence of a late-chunked document together with the content token
+     * range of each chunk
+     */
+    static class SpanTokens {
+        public final int[] tokenIds;
+        public final int[] chunkStarts;
+        public final int[] chunkEnds;
+
+        public SpanTokens(int[] tokenIds, int[] chunkStarts, int[] chunkEnds) {
+            this.tokenIds = tokenIds;
+            this.chunkStarts = chunkStarts;
+            this.chunkEnds = chunkEnds;
+        }
+    }
+}
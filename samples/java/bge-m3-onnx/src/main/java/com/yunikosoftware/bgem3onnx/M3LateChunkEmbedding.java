@@ -0,0 +1,102 @@
+package com.yunikosoftware.bgem3onnx;
+
+/**
+ * Chunk embeddings of a document produced by late chunking: the whole document
+ * runs through the model once and each chunk embedding is the mean of the
+ * ColBERT vectors of the chunk's tokens, normalized to unit length. Every chunk
+ * embedding is therefore computed with the full document as context.
+ */
+public class M3LateChunkEmbedding {
+    private final M3EmbeddingOutput document;
+    private final int[] chunkStarts;
+    private final int[] chunkEnds;
+    private final float[][] chunkEmbeddings;
+
+    /**
+     * Creates a new M3LateChunkEmbedding instance and pools the chunk embeddings
+     * from the document's ColBERT vectors
+     *
+     * @param document    Output of the document forward pass, including ColBERT
+     *                    vectors
+     * @param chunkStarts First content token of each chunk in the document
+     * @param chunkEnds   End (exclusive) content token of each chunk in the
+     *                    document
+     */
+    public M3LateChunkEmbedding(M3EmbeddingOutput document, int[] chunkStarts, int[] chunkEnds) {
+        if (document.getColBertMatrix() == null) {
+            throw new IllegalArgumentException("Late chunking requires the ColBERT vectors of the document");
+        }
+        if (chunkStarts.length != chunkEnds.length) {
+            throw new IllegalArgumentException("Expected a start and end token for each chunk");
+        }
+
+        this.document = document;
+        this.chunkStarts = chunkStarts;
+        this.chunkEnds = chunkEnds;
+        this.chunkEmbeddings = new float[chunkStarts.length][];
+        for (int i = 0; i < chunkStarts.length; i++) {
+            chunkEmbeddings[i] = poolTokens(document.getColBertMatrix(), chunkStarts[i], chunkEnds[i]);
+        }
+    }
+
+    /**
+     * Gets the output of the document forward pass (dense, sparse and ColBERT
+     * embeddings of the whole document)
+     */
+    public M3EmbeddingOutput getDocument() {
+        return document;
+    }
+
+    /**
+     * Gets the number of chunks
+     */
+    public int getChunkCount() {
+        return chunkEmbeddings.length;
+    }
+
+    /**
+     * Gets the embedding of a chunk
+     *
+     * @param chunk The chunk index
+     * @return Unit-length chunk embedding, or null if the chunk has no tokens
+     */
+    public float[] getChunkEmbedding(int chunk) {
+        return chunkEmbeddings[chunk];
+    }
+
+    /**
+     * Gets the first token of a chunk, counted in the document's tokens without
+     * [CLS] and [SEP]
+     */
+    public int getChunkStart(int chunk) {
+        return chunkStarts[chunk];
+    }
+
+    /**
+     * Gets the end (exclusive) token of a chunk, counted in the document's tokens
+     * without [CLS] and [SEP]
+     */
+    public int getChunkEnd(int chunk) {
+        return chunkEnds[chunk];
+    }
+
+    /**
+     * Averages the ColBERT vectors of a token range. ColBERT row r holds the token
+     * at sequence position r + 1, so content token t is row t.
+     */
+    private static float[] poolTokens(M3ColBertMatrix colBert, int start, int end) {
+        int rowEnd = Math.min(end, colBert.getRowCount());
+        if (start >= rowEnd) {
+            return null;
+        }
+
+        int dimension = colBert.getDimension();
+        float[] data = colBert.getData();
+        float[] pooled = new float[dimension];
+        for (int row = start; row < rowEnd; row++) {
+            M3Vectors.addScaled(pooled, data, row * dimension, 1);
+        }
+        M3Vectors.normalize(pooled);
+        return pooled;
+    }
+}
@@ -0,0 +1,197 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded least-recently-used cache split into independently locked stripes.
+ * Each key belongs to one stripe, so concurrent lookups of different keys rarely
+ * contend. The entry and weight limits are divided evenly between the stripes.
+ */
+final class M3LruCache<K, V> {
+    private static final int MAX_STRIPES = 16;
+
+    private final Stripe<K, V>[] stripes;
+    private final Weigher<K, V> weigher;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Initializes a new instance of the M3LruCache class
+     * 
+     * @param maxEntries Maximum number of entries, or 0 for no entry limit
+     * @param maxWeight  Maximum total weight of the entries, or 0 for no weight
+     *                   limit
+     * @param weigher    Computes the weight of an entry, typically its size in bytes
+     */
+    M3LruCache(long maxEntries, long maxWeight, Weigher<K, V> weigher) {
+        if (maxEntries < 0 || maxWeight < 0) {
+            throw new IllegalArgumentException("Cache limits must not be negative");
+        }
+        if (maxEntries == 0 && maxWeight == 0) {
+            throw new IllegalArgumentException("Either maxEntries or maxWeight must be set");
+        }
+
+        // Small caches get fewer stripes so each stripe can still hold entries
+        int stripeCount = MAX_STRIPES;
+        while (stripeCount > 1 && maxEntries > 0 && maxEntries < stripeCount * 4L) {
+            stripeCount /= 2;
+        }
+
+        @SuppressWarnings("unchecked")
+        Stripe<K, V>[] stripes = (Stripe<K, V>[]) new Stripe<?, ?>[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<>(ceilDiv(maxEntries, stripeCount), ceilDiv(maxWeight, stripeCount));
+        }
+        this.weigher = weigher;
+        this.stripes = stripes;
+    }
+
+    /**
+     * Gets a cached value and marks it as most recently used
+     * 
+     * @return The value, or null if the key is not cached
+     */
+    V get(K key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        Node<V> node;
+        synchronized (stripe) {
+            node = stripe.map.get(key);
+        }
+
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces a value, evicting least recently used entries of the same
+     * stripe until it is within its limits. Values heavier than a stripe's weight
+     * limit are not cached.
+     */
+    void put(K key, V value) {
+        long weight = weigher.weigh(key, value);
+        Stripe<K, V> stripe = stripeFor(key);
+
+        synchronized (stripe) {
+            if (stripe.maxWeight > 0 && weight > stripe.maxWeight) {
+                Node<V> previous = stripe.map.remove(key);
+                if (previous != null) {
+                    stripe.weight -= previous.weight;
+                }
+                return;
+            }
+
+            Node<V> previous = stripe.map.put(key, new Node<>(value, weight));
+            if (previous != null) {
+                stripe.weight -= previous.weight;
+            }
+            stripe.weight += weight;
+
+            Iterator<Map.Entry<K, Node<V>>> eldest = stripe.map.entrySet().iterator();
+            while (stripe.isOverLimit()) {
+                Node<V> evicted = eldest.next().getValue();
+                eldest.remove();
+                stripe.weight -= evicted.weight;
+                evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries. Counters are kept.
+     */
+    void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.map.clear();
+                stripe.weight = 0;
+            }
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.map.size();
+            }
+        }
+        return size;
+    }
+
+    long weight() {
+        long weight = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        }
+        return weight;
+    }
+
+    long hitCount() {
+        return hitCount.sum();
+    }
+
+    long missCount() {
+        return missCount.sum();
+    }
+
+    long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private static long ceilDiv(long value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    @FunctionalInterface
+    interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    /**
+     * Cached value together with its weight
+     */
+    private static class Node<V> {
+        public final V value;
+        public final long weight;
+
+        public Node(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Access-ordered map of one stripe, guarded by the stripe's monitor
+     */
+    private static class Stripe<K, V> {
+        public final LinkedHashMap<K, Node<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        public final long maxEntries;
+        public final long maxWeight;
+        public long weight;
+
+        public Stripe(long maxEntries, long maxWeight) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+        }
+
+        public boolean isOverLimit() {
+            return (maxEntries > 0 && map.size() > maxEntries) || (maxWeight > 0 && weight > maxWeight);
+        }
+    }
+}
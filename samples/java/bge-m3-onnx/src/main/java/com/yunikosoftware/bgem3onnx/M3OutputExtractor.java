@@ -0,0 +1,98 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import java.nio.FloatBuffer;
+
+/**
+ * Post-processing of the model outputs. Outputs are read from the flat tensor
+ * buffers by stride instead of through nested Java arrays.
+ */
+final class M3OutputExtractor {
+    private M3OutputExtractor() {
+    }
+
+    /**
+     * Gets the tensor of a model output by name
+     */
+    static OnnxTensor getTensor(OrtSession.Result modelResults, M3OutputType outputType) {
+        return (OnnxTensor) modelResults.get(outputType.getOutputName())
+                .orElseThrow(() -> new IllegalStateException("Model output missing: " + outputType.getOutputName()));
+    }
+
+    /**
+     * Gets the shape of an output tensor
+     */
+    static long[] getShape(OnnxTensor tensor) throws OrtException {
+        return tensor.getInfo().getShape();
+    }
+
+    /**
+     * Extract the dense embedding of one batch row from a [batch, hidden] output
+     */
+    static float[] extractDense(FloatBuffer denseOutput, long[] shape, int row) {
+        int hiddenSize = (int) shape[1];
+        float[] dense = new float[hiddenSize];
+        denseOutput.get(row * hiddenSize, dense);
+        return dense;
+    }
+
+    /**
+     * Extract sparse weights of one batch row from a [batch, seqLen, k] output.
+     * Only the first tokenIds.length positions of the row are real tokens, the rest
+     * is padding.
+     */
+    static M3SparseVector extractSparseWeights(FloatBuffer sparseOutput, long[] shape, int row, int[] tokenIds) {
+        int seqLen = (int) shape[1];
+        int width = (int) shape[2];
+        int length = Math.min(tokenIds.length, seqLen);
+        int rowOffset = row * seqLen * width;
+
+        int[] ids = new int[length];
+        float[] weights = new float[length];
+        int count = 0;
+
+        for (int i = 0; i < length; i++) {
+            int tokenId = tokenIds[i];
+            if (M3SpecialTokens.isSpecialToken(tokenId)) {
+                continue;
+            }
+
+            // Use maximum value along the hidden dimension as the token weight
+            int offset = rowOffset + i * width;
+            float maxWeight = 0;
+            for (int j = 0; j < width; j++) {
+                maxWeight = Math.max(maxWeight, sparseOutput.get(offset + j));
+            }
+
+            ids[count] = tokenId;
+            weights[count] = maxWeight;
+            count++;
+        }
+
+        // Drops zero weights and keeps the maximum weight of repeated tokens
+        return M3SparseVector.of(ids, weights, count);
+    }
+
+    /**
+     * Extract ColBERT vectors of one batch row from a [batch, colbertLen, hidden]
+     * output. ColBERT rows skip the leading [CLS] position, so row i lines up with
+     * token position i + (seqLen - colbertLen), and only rows lining up with one of
+     * the tokenCount real tokens are kept. The kept rows are contiguous in the
+     * output, so they are read with one bulk copy.
+     */
+    static M3ColBertMatrix extractColBertVectors(FloatBuffer colbertOutput, long[] shape, int row, int seqLen,
+            int tokenCount) {
+        int colbertLen = (int) shape[1];
+        int hiddenSize = (int) shape[2];
+        int positionOffset = Math.max(0, seqLen - colbertLen);
+        int vectorCount = Math.max(0, Math.min(colbertLen, tokenCount - positionOffset));
+        int rowOffset = row * colbertLen * hiddenSize;
+
+        float[] data = new float[vectorCount * hiddenSize];
+        colbertOutput.get(rowOffset, data);
+
+        return new M3ColBertMatrix(data, vectorCount, hiddenSize);
+    }
+}
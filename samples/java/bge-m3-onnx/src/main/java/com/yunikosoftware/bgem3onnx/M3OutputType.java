@@ -0,0 +1,46 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Embedding types produced by the BGE-M3 model, used to request only the outputs
+ * a caller needs
+ */
+public enum M3OutputType {
+    /**
+     * Dense embedding (sentence-level representation)
+     */
+    DENSE("dense_embeddings"),
+
+    /**
+     * Sparse weights (token-level weights for lexical matching)
+     */
+    SPARSE("sparse_weights"),
+
+    /**
+     * ColBERT vectors (multi-vector representation, one per token)
+     */
+    COLBERT("colbert_vectors");
+
+    /**
+     * All output types
+     */
+    public static final Set<M3OutputType> ALL = Collections.unmodifiableSet(EnumSet.allOf(M3OutputType.class));
+
+    private final String outputName;
+
+    M3OutputType(String outputName) {
+        this.outputName = outputName;
+    }
+
+    /**
+     * Gets the name of the matching output of the ONNX model
+     * 
+     * @return The model output name
+     */
+    public String getOutputName() {
+        return outputName;
+    }
+}
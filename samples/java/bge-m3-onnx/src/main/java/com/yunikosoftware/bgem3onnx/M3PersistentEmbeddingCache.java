@@ -0,0 +1,502 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * Disk-backed embedding cache that survives restarts. Outputs are appended to
+ * memory-mapped segment files in the {@link M3EmbeddingCodec} format and found
+ * through an in-memory hash index, which is rebuilt by scanning the segments
+ * when the cache is opened. Stored outputs are read in place from the mapped
+ * files.
+ * <p>
+ * Entries are keyed by the SHA-256 hash of the model fingerprint, the output
+ * types and the text, so outputs of a different model file are never returned.
+ * Records are checksummed; a record torn by a crash ends the scan of its segment
+ * and is overwritten by the next append.
+ * <p>
+ * An open cache holds an exclusive lock on a lock file in its directory, so a
+ * second cache on the same directory, in this or another process, fails to open
+ * instead of appending to the same segments.
+ */
+public class M3PersistentEmbeddingCache implements AutoCloseable {
+    /** Default size of a segment file (256 MiB) */
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    private static final int SEGMENT_MAGIC = 0x4345334D; // "M3EC"
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int KEY_SIZE = 32;
+    // Payload length, CRC32C of key and payload, key
+    private static final int RECORD_HEADER_SIZE = 8 + KEY_SIZE;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".m3c";
+    private static final String LOCK_FILE_NAME = "cache.lock";
+
+    private final Path directory;
+    private final byte[] fingerprint;
+    private final int segmentSize;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<IndexKey, Long> index = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final Object writeLock = new Object();
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    private int nextFileNumber;
+    private volatile boolean closed;
+
+    /**
+     * Opens or creates a cache with the default segment size
+     * 
+     * @param directory        Directory holding the segment files
+     * @param modelFingerprint Identifies the model that produced the outputs, see
+     *                         {@link #fingerprint(Path)}
+     * @throws IOException If the segment files cannot be read or created
+     */
+    public M3PersistentEmbeddingCache(Path directory, String modelFingerprint) throws IOException {
+        this(directory, modelFingerprint, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens or creates a cache
+     * 
+     * @param directory        Directory holding the segment files
+     * @param modelFingerprint Identifies the model that produced the outputs, see
+     *                         {@link #fingerprint(Path)}
+     * @param segmentSize      Size of new segment files in bytes. Outputs larger
+     *                         than a segment get a segment of their own.
+     * @throws IOException If the segment files cannot be read or created, or if
+     *                     another cache has the directory open
+     */
+    public M3PersistentEmbeddingCache(Path directory, String modelFingerprint, int segmentSize) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+        this.directory = directory;
+        this.fingerprint = modelFingerprint.getBytes(StandardCharsets.UTF_8);
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            this.directoryLock = lockDirectory(lockChannel, directory);
+            loadSegments();
+        } catch (IOException | RuntimeException e) {
+            // Closing the channel also releases the lock if it was taken
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Computes a fingerprint of a model from the contents of its ONNX file and,
+     * if present, its external data file (the model path followed by "_data")
+     * 
+     * @param modelPath Path to the ONNX model
+     * @return Hex-encoded SHA-256 hash of the model files
+     * @throws IOException If the model files cannot be read
+     */
+    public static String fingerprint(Path modelPath) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[1 << 20];
+
+        List<Path> files = new ArrayList<>();
+        files.add(modelPath);
+        Path dataPath = modelPath.resolveSibling(modelPath.getFileName() + "_data");
+        if (Files.exists(dataPath)) {
+            files.add(dataPath);
+        }
+
+        for (Path file : files) {
+            try (InputStream input = Files.newInputStream(file)) {
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Looks up a stored output
+     * 
+     * @param text        The input text
+     * @param outputTypes The embedding types the output was computed with
+     * @return A view of the stored output in the mapped file, or null if not stored
+     */
+    public M3EmbeddingCodec.View get(String text, Set<M3OutputType> outputTypes) {
+        checkOpen();
+        byte[] key = computeKey(text, outputTypes);
+        Long location = index.get(new IndexKey(key));
+        if (location == null) {
+            missCount.increment();
+            return null;
+        }
+
+        Segment segment = segments.get((int) (location >>> 32));
+        int offset = (int) (long) location;
+        ByteBuffer buffer = segment.buffer;
+
+        // The index only holds part of the key, so compare the full hash
+        for (int i = 0; i < KEY_SIZE; i++) {
+            if (buffer.get(offset + 8 + i) != key[i]) {
+                missCount.increment();
+                return null;
+            }
+        }
+
+        hitCount.increment();
+        int payloadLength = buffer.getInt(offset);
+        return M3EmbeddingCodec.wrap(buffer.slice(offset + RECORD_HEADER_SIZE, payloadLength));
+    }
+
+    /**
+     * Checks whether an output is stored
+     * 
+     * @param text        The input text
+     * @param outputTypes The embedding types the output was computed with
+     * @return True if the output is stored
+     */
+    public boolean contains(String text, Set<M3OutputType> outputTypes) {
+        checkOpen();
+        return index.containsKey(new IndexKey(computeKey(text, outputTypes)));
+    }
+
+    /**
+     * Appends an output. Outputs that are already stored are not written again.
+     * Writes go to the page cache and reach the disk when the operating system
+     * flushes them or when {@link #flush()} is called.
+     * 
+     * @param text        The input text
+     * @param outputTypes The embedding types the output was computed with
+     * @param output      The embedding output
+     * @throws IOException If a new segment file cannot be created
+     */
+    public void put(String text, Set<M3OutputType> outputTypes, M3EmbeddingOutput output) throws IOException {
+        checkOpen();
+        byte[] key = computeKey(text, outputTypes);
+        IndexKey indexKey = new IndexKey(key);
+        if (index.containsKey(indexKey)) {
+            return;
+        }
+
+        int payloadLength = M3EmbeddingCodec.encodedSize(output);
+        int recordLength = align(RECORD_HEADER_SIZE + payloadLength);
+
+        synchronized (writeLock) {
+            if (index.containsKey(indexKey)) {
+                return;
+            }
+
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            // Keep room for the zero length that terminates the segment
+            if (segment == null || segment.writePosition + recordLength + 4 > segment.buffer.capacity()) {
+                long size = Math.max(segmentSize, (long) SEGMENT_HEADER_SIZE + recordLength + 4);
+                if (size > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Embedding output too large to store: " + payloadLength + " bytes");
+                }
+                segment = createSegment(segments.size(), (int) size);
+            }
+
+            ByteBuffer buffer = segment.buffer;
+            int offset = segment.writePosition;
+
+            ByteBuffer record = buffer.slice(offset, recordLength).order(ByteOrder.LITTLE_ENDIAN);
+            record.position(RECORD_HEADER_SIZE);
+            M3EmbeddingCodec.encode(output, record);
+            record.put(8, key);
+
+            CRC32C crc = new CRC32C();
+            crc.update(record.slice(8, KEY_SIZE));
+            crc.update(record.slice(RECORD_HEADER_SIZE, payloadLength));
+            record.putInt(4, (int) crc.getValue());
+
+            // Terminate the segment after this record, then publish the record by
+            // writing its length last
+            buffer.putInt(offset + recordLength, 0);
+            record.putInt(0, payloadLength);
+
+            segment.writePosition = offset + recordLength;
+            index.put(indexKey, ((long) segment.id << 32) | offset);
+        }
+    }
+
+    /**
+     * Forces all written outputs to disk
+     */
+    public void flush() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Gets the number of stored outputs
+     */
+    public long getEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * Gets the number of segment files
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Gets the number of bytes used by stored outputs across all segments
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.writePosition;
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of lookups that found a stored output
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Gets the number of lookups that found nothing
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Takes the exclusive lock on the cache directory
+     */
+    private static FileLock lockDirectory(FileChannel channel, Path directory) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another cache in this JVM
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException("The embedding cache in " + directory + " is already open in another cache"
+                    + " or process");
+        }
+        return lock;
+    }
+
+    /**
+     * Maps the existing segment files in order and indexes their records
+     */
+    private void loadSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for (Path file : files) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC
+                    || buffer.getInt(4) != SEGMENT_VERSION) {
+                throw new IOException("Not a segment of a compatible embedding cache: " + file);
+            }
+
+            Segment segment = new Segment(segments.size(), buffer);
+            segment.writePosition = scan(segment);
+            segments.add(segment);
+
+            String name = file.getFileName().toString();
+            String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+            try {
+                nextFileNumber = Math.max(nextFileNumber, Integer.parseInt(number) + 1);
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected segment file name: " + file);
+            }
+        }
+    }
+
+    /**
+     * Indexes the valid records of a segment and returns the position after the
+     * last one
+     */
+    private int scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = SEGMENT_HEADER_SIZE;
+        byte[] key = new byte[KEY_SIZE];
+
+        while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int payloadLength = buffer.getInt(offset);
+            if (payloadLength <= 0 || (long) offset + RECORD_HEADER_SIZE + payloadLength > buffer.capacity()) {
+                break;
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(offset + 8, KEY_SIZE));
+            crc.update(buffer.slice(offset + RECORD_HEADER_SIZE, payloadLength));
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+
+            buffer.get(offset + 8, key);
+            index.put(new IndexKey(key), ((long) segment.id << 32) | offset);
+            offset += align(RECORD_HEADER_SIZE + payloadLength);
+        }
+
+        return offset;
+    }
+
+    private Segment createSegment(int id, int size) throws IOException {
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextFileNumber++, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, SEGMENT_MAGIC);
+        buffer.putInt(4, SEGMENT_VERSION);
+
+        Segment segment = new Segment(id, buffer);
+        segment.writePosition = SEGMENT_HEADER_SIZE;
+        segments.add(segment);
+        return segment;
+    }
+
+    private byte[] computeKey(String text, Set<M3OutputType> outputTypes) {
+        int typeMask = 0;
+        for (M3OutputType outputType : outputTypes) {
+            typeMask |= 1 << outputType.ordinal();
+        }
+
+        MessageDigest digest = sha256();
+        digest.update(fingerprint);
+        digest.update((byte) 0);
+        digest.update((byte) typeMask);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Rounds a record length up to a multiple of 8 so that every record starts
+     * aligned
+     */
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("M3PersistentEmbeddingCache is closed");
+        }
+    }
+
+    /**
+     * First 16 bytes of an entry key, used as the in-memory index key
+     */
+    private static final class IndexKey {
+        private final long high;
+        private final long low;
+
+        public IndexKey(byte[] key) {
+            ByteBuffer buffer = ByteBuffer.wrap(key);
+            this.high = buffer.getLong(0);
+            this.low = buffer.getLong(8);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) obj;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high);
+        }
+    }
+
+    /**
+     * Mapped segment file
+     */
+    private static class Segment {
+        public final int id;
+        public final MappedByteBuffer buffer;
+        public volatile int writePosition;
+
+        public Segment(int id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Flushes the segments, stops accepting requests and releases the directory
+     * lock. Views returned earlier keep their mapping alive and stay readable.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            try {
+                flush();
+            } finally {
+                try {
+                    directoryLock.release();
+                    lockChannel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to release the embedding cache lock", e);
+                }
+            }
+        }
+    }
+}
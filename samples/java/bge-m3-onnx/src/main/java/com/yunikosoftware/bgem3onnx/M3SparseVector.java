@@ -0,0 +1,261 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Sparse lexical weights stored as token IDs sorted in ascending order with a
+ * parallel array of weights. Each token ID occurs once; duplicate tokens are
+ * merged by keeping the maximum weight.
+ */
+public class M3SparseVector {
+    private static final M3SparseVector EMPTY = new M3SparseVector(new int[0], new float[0]);
+
+    private final int[] tokenIds;
+    private final float[] weights;
+
+    private M3SparseVector(int[] tokenIds, float[] weights) {
+        this.tokenIds = tokenIds;
+        this.weights = weights;
+    }
+
+    /**
+     * Creates a sparse vector from unordered token IDs and weights. Entries with a
+     * weight of zero or less are dropped and duplicate token IDs keep their maximum
+     * weight.
+     * 
+     * @param tokenIds Token IDs, in any order
+     * @param weights  Weight of each token ID
+     * @param count    Number of entries to read from the arrays
+     * @return The sparse vector
+     */
+    public static M3SparseVector of(int[] tokenIds, float[] weights, int count) {
+        // Pack (tokenId, weight) into longs so one primitive sort orders by token ID.
+        // Positive float bit patterns sort like the floats themselves, so the last
+        // entry of each token ID holds its maximum weight.
+        long[] entries = new long[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] > 0) {
+                entries[size++] = ((long) tokenIds[i] << 32) | Float.floatToRawIntBits(weights[i]);
+            }
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(entries, 0, size);
+
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (i + 1 < size && (int) (entries[i] >>> 32) == (int) (entries[i + 1] >>> 32)) {
+                continue;
+            }
+            entries[unique++] = entries[i];
+        }
+
+        int[] sortedIds = new int[unique];
+        float[] sortedWeights = new float[unique];
+        for (int i = 0; i < unique; i++) {
+            sortedIds[i] = (int) (entries[i] >>> 32);
+            sortedWeights[i] = Float.intBitsToFloat((int) entries[i]);
+        }
+
+        return new M3SparseVector(sortedIds, sortedWeights);
+    }
+
+    /**
+     * Wraps token IDs that are already sorted and unique, such as those of a
+     * stored vector, without sorting them again
+     */
+    static M3SparseVector ofSorted(int[] tokenIds, float[] weights) {
+        return new M3SparseVector(tokenIds, weights);
+    }
+
+    /**
+     * Creates a sparse vector from a map of token ID to weight
+     * 
+     * @param sparseWeights Map of token ID to weight
+     * @return The sparse vector
+     */
+    public static M3SparseVector fromMap(Map<Integer, Float> sparseWeights) {
+        int[] tokenIds = new int[sparseWeights.size()];
+        float[] weights = new float[sparseWeights.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Float> entry : sparseWeights.entrySet()) {
+            tokenIds[i] = entry.getKey();
+            weights[i] = entry.getValue();
+            i++;
+        }
+        return of(tokenIds, weights, i);
+    }
+
+    /**
+     * Gets the number of non-zero entries
+     * 
+     * @return The entry count
+     */
+    public int size() {
+        return tokenIds.length;
+    }
+
+    /**
+     * Gets the token IDs in ascending order. The array is shared and must not be
+     * modified.
+     * 
+     * @return Array of token IDs
+     */
+    public int[] getTokenIds() {
+        return tokenIds;
+    }
+
+    /**
+     * Gets the weights, parallel to {@link #getTokenIds()}. The array is shared and
+     * must not be modified.
+     * 
+     * @return Array of weights
+     */
+    public float[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Gets the weight of a token
+     * 
+     * @param tokenId The token ID
+     * @return The weight, or 0 if the token is not present
+     */
+    public float weightOf(int tokenId) {
+        int index = Arrays.binarySearch(tokenIds, tokenId);
+        return index >= 0 ? weights[index] : 0;
+    }
+
+    /**
+     * Checks whether a token has a weight
+     * 
+     * @param tokenId The token ID
+     * @return True if the token is present
+     */
+    public boolean contains(int tokenId) {
+        return Arrays.binarySearch(tokenIds, tokenId) >= 0;
+    }
+
+    /**
+     * Computes the lexical matching score with another sparse vector: the sum of
+     * weight products over the tokens both vectors share
+     * 
+     * @param other The other sparse vector
+     * @return The dot product
+     */
+    public double dot(M3SparseVector other) {
+        int[] otherIds = other.tokenIds;
+        float[] otherWeights = other.weights;
+        double score = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < tokenIds.length && j < otherIds.length) {
+            int a = tokenIds[i];
+            int b = otherIds[j];
+            if (a == b) {
+                score += weights[i++] * otherWeights[j++];
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * Calls the consumer for every entry in ascending token ID order
+     * 
+     * @param consumer The entry consumer
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < tokenIds.length; i++) {
+            consumer.accept(tokenIds[i], weights[i]);
+        }
+    }
+
+    /**
+     * Gets a read-only map view of the entries, for code written against the map
+     * representation. Lookups use binary search over the sorted token IDs.
+     * 
+     * @return Map of token ID to weight
+     */
+    public Map<Integer, Float> asMap() {
+        return new MapView();
+    }
+
+    /**
+     * Consumer of sparse vector entries
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(int tokenId, float weight);
+    }
+
+    /**
+     * Read-only map view backed by the sorted arrays
+     */
+    private class MapView extends AbstractMap<Integer, Float> {
+        @Override
+        public int size() {
+            return tokenIds.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && contains((Integer) key);
+        }
+
+        @Override
+        public Float get(Object key) {
+            if (!(key instanceof Integer)) {
+                return null;
+            }
+            int index = Arrays.binarySearch(tokenIds, (Integer) key);
+            return index >= 0 ? weights[index] : null;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, Float>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return tokenIds.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Integer, Float>> iterator() {
+                    return new Iterator<>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < tokenIds.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Integer, Float> next() {
+                            if (index >= tokenIds.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<Integer, Float> entry = new SimpleImmutableEntry<>(tokenIds[index],
+                                    weights[index]);
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
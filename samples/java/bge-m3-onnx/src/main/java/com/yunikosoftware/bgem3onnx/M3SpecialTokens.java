@@ -0,0 +1,22 @@
+package com.yunikosoftware.bgem3onnx;
+
+/**
+ * IDs of the special tokens in the XLM-RoBERTa vocabulary used by BGE-M3
+ */
+final class M3SpecialTokens {
+    static final int CLS_TOKEN_ID = 0; // <s>
+    static final int PAD_TOKEN_ID = 1; // <pad>
+    static final int SEP_TOKEN_ID = 2; // </s>
+    static final int UNK_TOKEN_ID = 3; // <unk>
+
+    private M3SpecialTokens() {
+    }
+
+    /**
+     * Returns true for [CLS], [PAD], [SEP] and [UNK], which never carry sparse
+     * weight
+     */
+    static boolean isSpecialToken(int tokenId) {
+        return tokenId >= CLS_TOKEN_ID && tokenId <= UNK_TOKEN_ID;
+    }
+}
@@ -0,0 +1,83 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Overlapping windows over the token sequence of a long document. Each window is
+ * a model-ready sequence wrapped in [CLS] and [SEP]; its start and end refer to
+ * the document's content tokens, i.e. the tokenizer output without [CLS] and
+ * [SEP].
+ */
+final class M3TokenWindows {
+    public final List<int[]> windows;
+    public final int[] starts;
+    public final int[] ends;
+
+    private M3TokenWindows(List<int[]> windows, int[] starts, int[] ends) {
+        this.windows = windows;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Splits a tokenized document into windows of at most windowTokens tokens,
+     * including [CLS] and [SEP], where consecutive windows share overlapTokens
+     * content tokens
+     *
+     * @param tokenIds      Tokenizer output of the document, starting with [CLS]
+     *                      and ending with [SEP]
+     * @param windowTokens  Maximum number of tokens per window
+     * @param overlapTokens Number of content tokens shared by consecutive windows
+     * @return The windows in document order
+     */
+    static M3TokenWindows split(int[] tokenIds, int windowTokens, int overlapTokens) {
+        validate(windowTokens, overlapTokens);
+
+        // Content tokens lie between [CLS] and [SEP]
+        int contentStart = 1;
+        int contentEnd = Math.max(contentStart, tokenIds.length - 1);
+        int contentLength = contentEnd - contentStart;
+        int windowContent = windowTokens - 2;
+        int stride = windowContent - overlapTokens;
+
+        List<int[]> windows = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int end = Math.min(start + windowContent, contentLength);
+            int[] window = new int[end - start + 2];
+            window[0] = M3SpecialTokens.CLS_TOKEN_ID;
+            System.arraycopy(tokenIds, contentStart + start, window, 1, end - start);
+            window[window.length - 1] = M3SpecialTokens.SEP_TOKEN_ID;
+            windows.add(window);
+            starts.add(start);
+
+            if (end >= contentLength) {
+                break;
+            }
+            start += stride;
+        }
+
+        int[] startArray = new int[starts.size()];
+        int[] endArray = new int[starts.size()];
+        for (int i = 0; i < startArray.length; i++) {
+            startArray[i] = starts.get(i);
+            endArray[i] = startArray[i] + windows.get(i).length - 2;
+        }
+        return new M3TokenWindows(windows, startArray, endArray);
+    }
+
+    /**
+     * Checks that a window holds at least one content token and advances by at
+     * least one token
+     */
+    static void validate(int windowTokens, int overlapTokens) {
+        if (windowTokens < 3) {
+            throw new IllegalArgumentException("windowTokens must be at least 3 to hold [CLS], [SEP] and a token");
+        }
+        if (overlapTokens < 0 || overlapTokens >= windowTokens - 2) {
+            throw new IllegalArgumentException("overlapTokens must be between 0 and windowTokens - 3");
+        }
+    }
+}
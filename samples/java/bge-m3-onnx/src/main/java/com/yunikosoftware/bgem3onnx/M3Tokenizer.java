@@ -0,0 +1,19 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.util.List;
+
+/**
+ * Converts texts into the BGE-M3 (XLM-RoBERTa) token IDs consumed by the model
+ */
+public interface M3Tokenizer extends AutoCloseable {
+    /**
+     * Tokenizes a batch of texts
+     * 
+     * @param texts The input texts
+     * @return The token IDs of each text in sequence order, starting with [CLS] and
+     *         ending with [SEP], in the same order as the input texts
+     * @throws OrtException If there's an error during tokenization
+     */
+    List<int[]> tokenize(List<String> texts) throws OrtException;
+}
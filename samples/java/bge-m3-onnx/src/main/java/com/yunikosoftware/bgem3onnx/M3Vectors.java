@@ -0,0 +1,41 @@
+package com.yunikosoftware.bgem3onnx;
+
+/**
+ * Vector arithmetic shared by the embeddings pooled from several vectors
+ */
+final class M3Vectors {
+    private M3Vectors() {
+    }
+
+    /**
+     * Adds a scaled vector to the target: target[j] += scale * source[offset + j]
+     * for every element of the target
+     *
+     * @param target The vector to add to
+     * @param source Array holding the vector to add
+     * @param offset Position of the vector to add in the source array
+     * @param scale  The factor applied to the added vector
+     */
+    static void addScaled(float[] target, float[] source, int offset, float scale) {
+        for (int j = 0; j < target.length; j++) {
+            target[j] += scale * source[offset + j];
+        }
+    }
+
+    /**
+     * Scales a vector to unit length in place. A zero vector is left unchanged.
+     */
+    static void normalize(float[] vector) {
+        float sumOfSquares = 0;
+        for (float value : vector) {
+            sumOfSquares += value * value;
+        }
+
+        float norm = (float) Math.sqrt(sumOfSquares);
+        if (norm > 0) {
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] /= norm;
+            }
+        }
+    }
+}
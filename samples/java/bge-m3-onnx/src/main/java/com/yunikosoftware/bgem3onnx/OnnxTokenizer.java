@@ -0,0 +1,167 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.*;
+import ai.onnxruntime.extensions.OrtxPackage;
+import java.util.*;
+
+/**
+ * Tokenizer running the BGE-M3 tokenizer ONNX model with the ONNX Runtime
+ * Extensions custom operators
+ */
+public class OnnxTokenizer implements M3Tokenizer {
+    private final OrtSession tokenizerSession;
+
+    /**
+     * Initializes a new instance of the OnnxTokenizer class with default session
+     * options
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @throws OrtException If there's an error initializing the ONNX session
+     */
+    public OnnxTokenizer(String tokenizerPath) throws OrtException {
+        this(tokenizerPath, new M3EmbedderConfig());
+    }
+
+    /**
+     * Initializes a new instance of the OnnxTokenizer class. The tokenizer always
+     * runs on CPU; only the memory and logging options of the configuration apply.
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param config        Configuration for session options
+     * @throws OrtException If there's an error initializing the ONNX session
+     */
+    public OnnxTokenizer(String tokenizerPath, M3EmbedderConfig config) throws OrtException {
+        OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
+        sessionOptions.setMemoryPatternOptimization(config.isEnableMemoryPattern());
+        sessionOptions.setCPUArenaAllocator(config.isEnableCpuMemArena());
+        sessionOptions.setSessionLogLevel(OrtLoggingLevel.values()[config.getLogSeverityLevel()]);
+        sessionOptions.registerCustomOpLibrary(OrtxPackage.getLibraryPath());
+
+        this.tokenizerSession = OrtEnvironment.getEnvironment().createSession(tokenizerPath, sessionOptions);
+    }
+
+    /**
+     * Tokenizes a batch of texts with a single tokenizer call and returns the token
+     * IDs of each text in sequence order
+     */
+    @Override
+    public List<int[]> tokenize(List<String> texts) throws OrtException {
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
+
+        // Create input tensor for tokenizer
+        Map<String, OnnxTensor> tokenizerInputs = new HashMap<>();
+        String[] inputArray = texts.toArray(new String[0]);
+
+        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputArray)) {
+            tokenizerInputs.put("inputs", inputTensor);
+
+            // Run tokenizer
+            try (OrtSession.Result tokenizerResults = tokenizerSession.run(tokenizerInputs)) {
+                // Extract tokens, instance_indices and token_indices. The outputs are flat
+                // across the batch, instance_indices tells which text each token belongs to
+                int[] tokens = toIntArray(tokenizerResults.get(0).getValue());
+                int[] instanceIndices = toIntArray(tokenizerResults.get(1).getValue());
+                int[] tokenIndices = toIntArray(tokenizerResults.get(2).getValue());
+
+                return demultiplexTokens(tokens, instanceIndices, tokenIndices, texts.size());
+            }
+        }
+    }
+
+    /**
+     * Splits the flat tokenizer output into one token array per text, ordered by
+     * token_indices. The tokenizer normally emits each text's tokens contiguously and
+     * already in order, in which case every text is a single array copy.
+     */
+    static List<int[]> demultiplexTokens(int[] tokens, int[] instanceIndices, int[] tokenIndices, int textCount) {
+        int tokenCount = Math.min(tokens.length, Math.min(instanceIndices.length, tokenIndices.length));
+
+        boolean grouped = true;
+        int[] starts = new int[textCount + 1];
+        for (int i = 0; i < tokenCount; i++) {
+            starts[instanceIndices[i] + 1]++;
+            if (i > 0 && instanceIndices[i] < instanceIndices[i - 1]) {
+                grouped = false;
+            }
+        }
+        for (int i = 0; i < textCount; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        // Rare case: tokens of different texts are interleaved. Group them with a
+        // stable counting sort so each text occupies a contiguous range.
+        if (!grouped) {
+            int[] groupedTokens = new int[tokenCount];
+            int[] groupedIndices = new int[tokenCount];
+            int[] next = Arrays.copyOf(starts, textCount);
+            for (int i = 0; i < tokenCount; i++) {
+                int position = next[instanceIndices[i]]++;
+                groupedTokens[position] = tokens[i];
+                groupedIndices[position] = tokenIndices[i];
+            }
+            tokens = groupedTokens;
+            tokenIndices = groupedIndices;
+        }
+
+        List<int[]> orderedTokens = new ArrayList<>(textCount);
+        for (int i = 0; i < textCount; i++) {
+            orderedTokens.add(orderTokens(tokens, tokenIndices, starts[i], starts[i + 1]));
+        }
+
+        return orderedTokens;
+    }
+
+    /**
+     * Returns tokens[from, to) sorted by their token_indices. Already ordered ranges
+     * are copied directly; otherwise each (index, token) pair is packed into a long
+     * and sorted as a primitive array.
+     */
+    static int[] orderTokens(int[] tokens, int[] tokenIndices, int from, int to) {
+        boolean ordered = true;
+        for (int i = from + 1; i < to && ordered; i++) {
+            ordered = tokenIndices[i - 1] <= tokenIndices[i];
+        }
+        if (ordered) {
+            return Arrays.copyOfRange(tokens, from, to);
+        }
+
+        long[] pairs = new long[to - from];
+        for (int i = from; i < to; i++) {
+            pairs[i - from] = ((long) tokenIndices[i] << 32) | (tokens[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs);
+
+        int[] orderedTokens = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            orderedTokens[i] = (int) pairs[i];
+        }
+        return orderedTokens;
+    }
+
+    /**
+     * Converts an integer tokenizer output (int32 or int64) to an int array
+     */
+    private static int[] toIntArray(Object value) {
+        if (value instanceof int[]) {
+            return (int[]) value;
+        }
+
+        long[] longValues = (long[]) value;
+        int[] intValues = new int[longValues.length];
+        for (int i = 0; i < longValues.length; i++) {
+            intValues[i] = (int) longValues[i];
+        }
+        return intValues;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (tokenizerSession != null) {
+            tokenizerSession.close();
+        }
+    }
+}
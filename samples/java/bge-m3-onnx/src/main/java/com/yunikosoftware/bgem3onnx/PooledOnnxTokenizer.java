@@ -0,0 +1,84 @@
+package com.yunikosoftware.bgem3onnx;
+
+import ai.onnxruntime.OrtException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of tokenizer ONNX sessions. Each call is handed to an idle session, so up
+ * to pool size threads tokenize at the same time instead of queueing on a single
+ * session. The pool is sized independently of the model sessions.
+ */
+public class PooledOnnxTokenizer implements M3Tokenizer {
+    private final List<OnnxTokenizer> tokenizers;
+    private final ConcurrentLinkedQueue<OnnxTokenizer> idleTokenizers = new ConcurrentLinkedQueue<>();
+    private final Semaphore availableTokenizers;
+
+    /**
+     * Initializes a new instance of the PooledOnnxTokenizer class
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @param config        Configuration for session options
+     * @param poolSize      Number of tokenizer sessions
+     * @throws OrtException If there's an error initializing the ONNX sessions
+     */
+    public PooledOnnxTokenizer(String tokenizerPath, M3EmbedderConfig config, int poolSize) throws OrtException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive");
+        }
+
+        this.tokenizers = new ArrayList<>(poolSize);
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                OnnxTokenizer tokenizer = new OnnxTokenizer(tokenizerPath, config);
+                tokenizers.add(tokenizer);
+                idleTokenizers.add(tokenizer);
+            }
+        } catch (OrtException e) {
+            closeTokenizers();
+            throw e;
+        }
+
+        this.availableTokenizers = new Semaphore(poolSize);
+    }
+
+    /**
+     * Gets the number of tokenizer sessions
+     * 
+     * @return The pool size
+     */
+    public int getPoolSize() {
+        return tokenizers.size();
+    }
+
+    @Override
+    public List<int[]> tokenize(List<String> texts) throws OrtException {
+        availableTokenizers.acquireUninterruptibly();
+        // A permit guarantees that an idle tokenizer is queued
+        OnnxTokenizer tokenizer = idleTokenizers.poll();
+
+        try {
+            return tokenizer.tokenize(texts);
+        } finally {
+            idleTokenizers.offer(tokenizer);
+            availableTokenizers.release();
+        }
+    }
+
+    private void closeTokenizers() {
+        for (OnnxTokenizer tokenizer : tokenizers) {
+            try {
+                tokenizer.close();
+            } catch (Exception e) {
+                // Keep closing the remaining sessions
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closeTokenizers();
+    }
+}
@@ -0,0 +1,184 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * SentencePiece normalization rules compiled into a double-array trie (the
+ * {@code precompiled_charsmap} of the normalizer spec, e.g. nmt_nfkc). The trie
+ * maps UTF-8 byte sequences to offsets of null-terminated replacement strings.
+ */
+final class PrecompiledCharsMap {
+    private static final byte[] REPLACEMENT_CHARACTER = { (byte) 0xEF, (byte) 0xBF, (byte) 0xBD };
+
+    private final int[] units;
+    private final byte[] normalized;
+
+    /**
+     * Parses a precompiled charsmap: a little-endian uint32 trie size, the trie
+     * units and then the replacement strings
+     */
+    PrecompiledCharsMap(byte[] blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+        int trieSize = buffer.getInt(0);
+        if (trieSize < 0 || trieSize % 4 != 0 || 4L + trieSize > blob.length) {
+            throw new IllegalArgumentException("Malformed precompiled charsmap");
+        }
+
+        this.units = new int[trieSize / 4];
+        buffer.position(4);
+        buffer.asIntBuffer().get(units);
+        this.normalized = new byte[blob.length - 4 - trieSize];
+        System.arraycopy(blob, 4 + trieSize, normalized, 0, normalized.length);
+    }
+
+    /**
+     * Normalizes the longest prefix of the input starting at the given offset that
+     * has a rule, or the first character if none does
+     * 
+     * @param input  UTF-8 input
+     * @param offset Start of the prefix
+     * @param output Receives the normalized bytes
+     * @return Number of input bytes consumed
+     */
+    int normalizePrefix(byte[] input, int offset, ByteSink output) {
+        int longestLength = 0;
+        int longestValue = 0;
+
+        // Common prefix search, keeping the longest match
+        int nodePos = offset(units[0]);
+        for (int i = offset; i < input.length; i++) {
+            int label = input[i] & 0xFF;
+            nodePos ^= label;
+            if (nodePos >= units.length) {
+                break;
+            }
+            int unit = units[nodePos];
+            if (label(unit) != label) {
+                break;
+            }
+            nodePos ^= offset(unit);
+            if (hasLeaf(unit)) {
+                longestLength = i - offset + 1;
+                longestValue = value(units[nodePos]);
+            }
+        }
+
+        if (longestLength > 0) {
+            for (int i = longestValue; i < normalized.length && normalized[i] != 0; i++) {
+                output.append(normalized[i]);
+            }
+            return longestLength;
+        }
+
+        int length = validCharLength(input, offset);
+        if (length == 0) {
+            // Malformed UTF-8 becomes U+FFFD, consuming one byte
+            output.append(REPLACEMENT_CHARACTER, 0, REPLACEMENT_CHARACTER.length);
+            return 1;
+        }
+        output.append(input, offset, length);
+        return length;
+    }
+
+    /**
+     * Gets the length of the UTF-8 character at the offset, or 0 if it is malformed
+     */
+    static int validCharLength(byte[] input, int offset) {
+        int lead = input[offset] & 0xFF;
+        int length;
+        int minimum;
+        if (lead < 0x80) {
+            return 1;
+        } else if (lead >= 0xC2 && lead < 0xE0) {
+            length = 2;
+            minimum = 0x80;
+        } else if (lead >= 0xE0 && lead < 0xF0) {
+            length = 3;
+            minimum = 0x800;
+        } else if (lead >= 0xF0 && lead < 0xF5) {
+            length = 4;
+            minimum = 0x10000;
+        } else {
+            return 0;
+        }
+
+        if (offset + length > input.length) {
+            return 0;
+        }
+        int codePoint = lead & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            int b = input[offset + i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return 0;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        if (codePoint < minimum || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+            return 0;
+        }
+        return length;
+    }
+
+    private static boolean hasLeaf(int unit) {
+        return ((unit >>> 8) & 1) == 1;
+    }
+
+    private static int value(int unit) {
+        return unit & 0x7FFFFFFF;
+    }
+
+    private static int label(int unit) {
+        return unit & (0x80000000 | 0xFF);
+    }
+
+    private static int offset(int unit) {
+        return (unit >>> 10) << ((unit & (1 << 9)) >>> 6);
+    }
+
+    /**
+     * Growable byte array receiving normalized output
+     */
+    static final class ByteSink {
+        private byte[] bytes;
+        private int size;
+
+        ByteSink(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void append(byte b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = b;
+        }
+
+        void append(byte[] source, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        byte get(int index) {
+            return bytes[index];
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader of the protocol buffers wire format, enough to pull the
+ * SentencePiece model out of the tokenizer ONNX file without a protobuf
+ * dependency
+ */
+final class ProtobufReader {
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_FIXED64 = 1;
+    static final int WIRE_LENGTH_DELIMITED = 2;
+    static final int WIRE_FIXED32 = 5;
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    ProtobufReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    ProtobufReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * Reads the next field tag. The field number is {@code tag >>> 3} and the wire
+     * type is {@code tag & 7}.
+     */
+    int readTag() throws IOException {
+        return (int) readVarint();
+    }
+
+    long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint at offset " + position);
+    }
+
+    int readFixed32() throws IOException {
+        return (readByte() & 0xFF) | (readByte() & 0xFF) << 8 | (readByte() & 0xFF) << 16
+                | (readByte() & 0xFF) << 24;
+    }
+
+    float readFloat() throws IOException {
+        return Float.intBitsToFloat(readFixed32());
+    }
+
+    byte[] readBytes() throws IOException {
+        int length = readLength();
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    String readString() throws IOException {
+        int length = readLength();
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Returns a reader over an embedded message and moves past it
+     */
+    ProtobufReader readMessage() throws IOException {
+        int length = readLength();
+        ProtobufReader message = new ProtobufReader(data, position, length);
+        position += length;
+        return message;
+    }
+
+    /**
+     * Skips the value of a field with the given tag
+     */
+    void skipField(int tag) throws IOException {
+        switch (tag & 7) {
+            case WIRE_VARINT:
+                readVarint();
+                break;
+            case WIRE_FIXED64:
+                advance(8);
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                advance(readLength());
+                break;
+            case WIRE_FIXED32:
+                advance(4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + (tag & 7) + " at offset " + position);
+        }
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw new IOException("Truncated field at offset " + position);
+        }
+        return (int) length;
+    }
+
+    private void advance(int count) throws IOException {
+        if (count > limit - position) {
+            throw new IOException("Truncated field at offset " + position);
+        }
+        position += count;
+    }
+
+    private byte readByte() throws IOException {
+        if (position >= limit) {
+            throw new IOException("Unexpected end of message");
+        }
+        return data[position++];
+    }
+}
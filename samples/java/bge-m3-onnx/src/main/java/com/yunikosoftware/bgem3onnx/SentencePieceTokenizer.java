@@ -0,0 +1,651 @@
+package com.yunikosoftware.bgem3onnx;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pure-Java SentencePiece Unigram tokenizer producing the same XLM-RoBERTa token
+ * IDs as the tokenizer ONNX model. It follows the SentencePiece normalizer
+ * (precompiled charsmap, dummy prefix, whitespace handling) and Viterbi
+ * segmentation, then maps the IDs to the fairseq vocabulary and adds [CLS] and
+ * [SEP].
+ * <p>
+ * Instances are immutable and thread-safe, so any number of threads can tokenize
+ * at the same time without an ONNX Runtime session.
+ */
+public class SentencePieceTokenizer implements M3Tokenizer {
+    private static final float UNK_PENALTY = 10.0f;
+    private static final byte[] SPACE_SYMBOL = "▁".getBytes(StandardCharsets.UTF_8);
+
+    // SentencePiece piece types
+    private static final int TYPE_NORMAL = 1;
+    private static final int TYPE_UNKNOWN = 2;
+    private static final int TYPE_USER_DEFINED = 4;
+
+    private final PieceTrie pieces;
+    private final float[] scores;
+    private final boolean[] userDefined;
+    private final int unkId;
+    private final float unkScore;
+    private final float maxScore;
+    private final PrecompiledCharsMap charsMap;
+    private final boolean addDummyPrefix;
+    private final boolean removeExtraWhitespaces;
+    private final boolean escapeWhitespaces;
+
+    private SentencePieceTokenizer(byte[] modelProto) throws IOException {
+        List<byte[]> pieceBytes = new ArrayList<>();
+        List<Float> pieceScores = new ArrayList<>();
+        List<Integer> pieceTypes = new ArrayList<>();
+        byte[] precompiledCharsMap = null;
+        boolean dummyPrefix = true;
+        boolean removeWhitespaces = true;
+        boolean escapeSpaces = true;
+        int modelType = 1;
+
+        ProtobufReader model = new ProtobufReader(modelProto);
+        while (model.hasRemaining()) {
+            int tag = model.readTag();
+            switch (tag >>> 3) {
+                case 1: { // pieces
+                    ProtobufReader piece = model.readMessage();
+                    byte[] text = new byte[0];
+                    float score = 0;
+                    int type = TYPE_NORMAL;
+                    while (piece.hasRemaining()) {
+                        int pieceTag = piece.readTag();
+                        switch (pieceTag >>> 3) {
+                            case 1:
+                                text = piece.readBytes();
+                                break;
+                            case 2:
+                                score = piece.readFloat();
+                                break;
+                            case 3:
+                                type = (int) piece.readVarint();
+                                break;
+                            default:
+                                piece.skipField(pieceTag);
+                        }
+                    }
+                    pieceBytes.add(text);
+                    pieceScores.add(score);
+                    pieceTypes.add(type);
+                    break;
+                }
+                case 2: { // trainer_spec
+                    ProtobufReader trainerSpec = model.readMessage();
+                    while (trainerSpec.hasRemaining()) {
+                        int specTag = trainerSpec.readTag();
+                        if (specTag >>> 3 == 3) {
+                            modelType = (int) trainerSpec.readVarint();
+                        } else {
+                            trainerSpec.skipField(specTag);
+                        }
+                    }
+                    break;
+                }
+                case 3: { // normalizer_spec
+                    ProtobufReader normalizerSpec = model.readMessage();
+                    while (normalizerSpec.hasRemaining()) {
+                        int specTag = normalizerSpec.readTag();
+                        switch (specTag >>> 3) {
+                            case 2:
+                                precompiledCharsMap = normalizerSpec.readBytes();
+                                break;
+                            case 3:
+                                dummyPrefix = normalizerSpec.readVarint() != 0;
+                                break;
+                            case 4:
+                                removeWhitespaces = normalizerSpec.readVarint() != 0;
+                                break;
+                            case 5:
+                                escapeSpaces = normalizerSpec.readVarint() != 0;
+                                break;
+                            default:
+                                normalizerSpec.skipField(specTag);
+                        }
+                    }
+                    break;
+                }
+                default:
+                    model.skipField(tag);
+            }
+        }
+
+        if (modelType != 1) {
+            throw new IOException("Only SentencePiece Unigram models are supported, model type is " + modelType);
+        }
+        if (pieceBytes.isEmpty()) {
+            throw new IOException("SentencePiece model has no pieces");
+        }
+
+        int pieceCount = pieceBytes.size();
+        this.scores = new float[pieceCount];
+        this.userDefined = new boolean[pieceCount];
+        int unk = -1;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        List<byte[]> trieKeys = new ArrayList<>();
+        List<Integer> trieIds = new ArrayList<>();
+
+        for (int id = 0; id < pieceCount; id++) {
+            int type = pieceTypes.get(id);
+            scores[id] = pieceScores.get(id);
+            userDefined[id] = type == TYPE_USER_DEFINED;
+            if (type == TYPE_UNKNOWN) {
+                unk = id;
+            }
+            if (type == TYPE_NORMAL) {
+                min = Math.min(min, scores[id]);
+                max = Math.max(max, scores[id]);
+            }
+            // Unused, control and unknown pieces never match text
+            if (type == TYPE_NORMAL || type == TYPE_USER_DEFINED) {
+                trieKeys.add(pieceBytes.get(id));
+                trieIds.add(id);
+            }
+        }
+
+        if (unk < 0) {
+            throw new IOException("SentencePiece model has no unknown piece");
+        }
+
+        this.unkId = unk;
+        this.unkScore = min - UNK_PENALTY;
+        this.maxScore = max;
+        this.pieces = new PieceTrie(trieKeys, trieIds);
+        this.charsMap = precompiledCharsMap != null && precompiledCharsMap.length > 0
+                ? new PrecompiledCharsMap(precompiledCharsMap)
+                : null;
+        this.addDummyPrefix = dummyPrefix;
+        this.removeExtraWhitespaces = removeWhitespaces;
+        this.escapeWhitespaces = escapeSpaces;
+    }
+
+    /**
+     * Creates a tokenizer from a serialized SentencePiece model (e.g. the
+     * sentencepiece.bpe.model file of XLM-RoBERTa)
+     * 
+     * @param modelProto The serialized SentencePiece ModelProto
+     * @return The tokenizer
+     * @throws IOException If the model cannot be parsed
+     */
+    public static SentencePieceTokenizer fromModelProto(byte[] modelProto) throws IOException {
+        return new SentencePieceTokenizer(modelProto);
+    }
+
+    /**
+     * Creates a tokenizer from the SentencePiece model embedded in the BGE-M3
+     * tokenizer ONNX file, the "model" attribute of its SentencepieceTokenizer node
+     * 
+     * @param tokenizerPath Path to the ONNX tokenizer model
+     * @return The tokenizer
+     * @throws IOException If the file cannot be read or has no SentencePiece model
+     */
+    public static SentencePieceTokenizer fromOnnxTokenizer(Path tokenizerPath) throws IOException {
+        byte[] modelProto = findSentencePieceModel(Files.readAllBytes(tokenizerPath));
+        if (modelProto == null) {
+            throw new IOException("No SentencepieceTokenizer node with a model found in " + tokenizerPath);
+        }
+        return new SentencePieceTokenizer(modelProto);
+    }
+
+    @Override
+    public List<int[]> tokenize(List<String> texts) {
+        List<int[]> tokenIds = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            tokenIds.add(tokenize(text));
+        }
+        return tokenIds;
+    }
+
+    /**
+     * Tokenizes a single text
+     * 
+     * @param text The input text
+     * @return The token IDs in sequence order, starting with [CLS] and ending with
+     *         [SEP]
+     */
+    public int[] tokenize(String text) {
+        PrecompiledCharsMap.ByteSink normalized = normalize(text.getBytes(StandardCharsets.UTF_8));
+        int[] pieceIds = encode(normalized.array(), normalized.size());
+
+        int[] tokenIds = new int[pieceIds.length + 2];
+        tokenIds[0] = M3SpecialTokens.CLS_TOKEN_ID;
+        for (int i = 0; i < pieceIds.length; i++) {
+            tokenIds[i + 1] = toFairseqId(pieceIds[i]);
+        }
+        tokenIds[tokenIds.length - 1] = M3SpecialTokens.SEP_TOKEN_ID;
+        return tokenIds;
+    }
+
+    /**
+     * Maps a SentencePiece ID to the XLM-RoBERTa vocabulary, which inserts &lt;pad&gt;
+     * at 1 and reorders the special tokens
+     */
+    private int toFairseqId(int pieceId) {
+        if (pieceId == unkId) {
+            return M3SpecialTokens.UNK_TOKEN_ID;
+        }
+        return pieceId + 1;
+    }
+
+    /**
+     * Applies the SentencePiece normalizer: charsmap rules, whitespace collapsing
+     * and trimming, whitespace escaping and the dummy prefix
+     */
+    private PrecompiledCharsMap.ByteSink normalize(byte[] input) {
+        PrecompiledCharsMap.ByteSink output = new PrecompiledCharsMap.ByteSink(input.length * 3 / 2 + 4);
+        PrecompiledCharsMap.ByteSink prefix = new PrecompiledCharsMap.ByteSink(16);
+        int position = 0;
+
+        // Skip leading whitespace
+        if (removeExtraWhitespaces) {
+            while (position < input.length) {
+                prefix.truncate(0);
+                int consumed = normalizePrefix(input, position, prefix);
+                if (prefix.size() != 1 || prefix.get(0) != ' ') {
+                    break;
+                }
+                position += consumed;
+            }
+        }
+        if (position >= input.length) {
+            return output;
+        }
+
+        if (addDummyPrefix) {
+            appendSpace(output);
+        }
+
+        boolean previousSpace = removeExtraWhitespaces;
+        while (position < input.length) {
+            prefix.truncate(0);
+            position += normalizePrefix(input, position, prefix);
+
+            int start = 0;
+            if (previousSpace) {
+                while (start < prefix.size() && prefix.get(start) == ' ') {
+                    start++;
+                }
+            }
+
+            if (start < prefix.size()) {
+                for (int i = start; i < prefix.size(); i++) {
+                    byte b = prefix.get(i);
+                    if (b == ' ' && escapeWhitespaces) {
+                        output.append(SPACE_SYMBOL, 0, SPACE_SYMBOL.length);
+                    } else {
+                        output.append(b);
+                    }
+                }
+                previousSpace = prefix.get(prefix.size() - 1) == ' ';
+            }
+
+            if (!removeExtraWhitespaces) {
+                previousSpace = false;
+            }
+        }
+
+        // Remove trailing whitespace
+        if (removeExtraWhitespaces) {
+            byte[] space = escapeWhitespaces ? SPACE_SYMBOL : new byte[] { ' ' };
+            while (endsWith(output, space)) {
+                output.truncate(output.size() - space.length);
+            }
+        }
+
+        return output;
+    }
+
+    private int normalizePrefix(byte[] input, int offset, PrecompiledCharsMap.ByteSink output) {
+        if (charsMap != null) {
+            return charsMap.normalizePrefix(input, offset, output);
+        }
+
+        int length = PrecompiledCharsMap.validCharLength(input, offset);
+        if (length == 0) {
+            output.append(new byte[] { (byte) 0xEF, (byte) 0xBF, (byte) 0xBD }, 0, 3);
+            return 1;
+        }
+        output.append(input, offset, length);
+        return length;
+    }
+
+    private void appendSpace(PrecompiledCharsMap.ByteSink output) {
+        if (escapeWhitespaces) {
+            output.append(SPACE_SYMBOL, 0, SPACE_SYMBOL.length);
+        } else {
+            output.append((byte) ' ');
+        }
+    }
+
+    private static boolean endsWith(PrecompiledCharsMap.ByteSink output, byte[] suffix) {
+        int start = output.size() - suffix.length;
+        if (start < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length; i++) {
+            if (output.get(start + i) != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the best segmentation of the normalized text with the Viterbi
+     * algorithm. Characters no piece covers become the unknown piece, and runs of
+     * unknown pieces are merged into one.
+     */
+    private int[] encode(byte[] text, int size) {
+        if (size == 0) {
+            return new int[0];
+        }
+
+        // Best path ending at each byte offset: piece ID, score and start offset
+        int[] bestId = new int[size + 1];
+        float[] bestScore = new float[size + 1];
+        int[] bestStart = new int[size + 1];
+        Arrays.fill(bestStart, -1);
+
+        int startsAt = 0;
+        while (startsAt < size) {
+            float scoreTillHere = bestScore[startsAt];
+            int charLength = Math.min(utf8CharLength(text[startsAt]), size - startsAt);
+            boolean hasSingleNode = false;
+
+            int node = PieceTrie.ROOT;
+            for (int keyPos = startsAt; keyPos < size; keyPos++) {
+                node = pieces.child(node, text[keyPos]);
+                if (node < 0) {
+                    break;
+                }
+                int id = pieces.value(node);
+                if (id < 0) {
+                    continue;
+                }
+
+                int endsAt = keyPos + 1;
+                int length = endsAt - startsAt;
+                float score = userDefined[id] ? length * maxScore - 0.1f : scores[id];
+                float candidate = score + scoreTillHere;
+                if (bestStart[endsAt] == -1 || candidate > bestScore[endsAt]) {
+                    bestScore[endsAt] = candidate;
+                    bestStart[endsAt] = startsAt;
+                    bestId[endsAt] = id;
+                }
+                if (length == charLength) {
+                    hasSingleNode = true;
+                }
+            }
+
+            if (!hasSingleNode) {
+                int endsAt = startsAt + charLength;
+                float candidate = unkScore + scoreTillHere;
+                if (bestStart[endsAt] == -1 || candidate > bestScore[endsAt]) {
+                    bestScore[endsAt] = candidate;
+                    bestStart[endsAt] = startsAt;
+                    bestId[endsAt] = unkId;
+                }
+            }
+
+            startsAt += charLength;
+        }
+
+        // Backtrack from the end, merging consecutive unknown pieces
+        int[] reversed = new int[size];
+        int count = 0;
+        for (int endsAt = size; endsAt > 0; endsAt = bestStart[endsAt]) {
+            int id = bestId[endsAt];
+            if (id == unkId && count > 0 && reversed[count - 1] == unkId) {
+                continue;
+            }
+            reversed[count++] = id;
+        }
+
+        int[] pieceIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            pieceIds[i] = reversed[count - 1 - i];
+        }
+        return pieceIds;
+    }
+
+    private static int utf8CharLength(byte lead) {
+        int b = lead & 0xFF;
+        if (b < 0xC0) {
+            return 1;
+        } else if (b < 0xE0) {
+            return 2;
+        } else if (b < 0xF0) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * Finds the "model" attribute of the SentencepieceTokenizer node in a
+     * serialized ONNX ModelProto
+     */
+    private static byte[] findSentencePieceModel(byte[] onnxModel) throws IOException {
+        ProtobufReader model = new ProtobufReader(onnxModel);
+        while (model.hasRemaining()) {
+            int tag = model.readTag();
+            if (tag >>> 3 != 7) { // graph
+                model.skipField(tag);
+                continue;
+            }
+
+            ProtobufReader graph = model.readMessage();
+            while (graph.hasRemaining()) {
+                int graphTag = graph.readTag();
+                if (graphTag >>> 3 != 1) { // node
+                    graph.skipField(graphTag);
+                    continue;
+                }
+
+                byte[] sentencePieceModel = readSentencePieceNode(graph.readMessage());
+                if (sentencePieceModel != null) {
+                    return sentencePieceModel;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readSentencePieceNode(ProtobufReader node) throws IOException {
+        String opType = null;
+        byte[] modelAttribute = null;
+
+        while (node.hasRemaining()) {
+            int tag = node.readTag();
+            switch (tag >>> 3) {
+                case 4: // op_type
+                    opType = node.readString();
+                    break;
+                case 5: { // attribute
+                    ProtobufReader attribute = node.readMessage();
+                    String name = null;
+                    byte[] value = null;
+                    while (attribute.hasRemaining()) {
+                        int attributeTag = attribute.readTag();
+                        switch (attributeTag >>> 3) {
+                            case 1:
+                                name = attribute.readString();
+                                break;
+                            case 4:
+                                value = attribute.readBytes();
+                                break;
+                            default:
+                                attribute.skipField(attributeTag);
+                        }
+                    }
+                    if ("model".equals(name)) {
+                        modelAttribute = value;
+                    }
+                    break;
+                }
+                default:
+                    node.skipField(tag);
+            }
+        }
+
+        return "SentencepieceTokenizer".equals(opType) ? modelAttribute : null;
+    }
+
+    /**
+     * Byte-wise trie of the vocabulary stored in flat arrays. Nodes are numbered
+     * breadth-first, so the children of a node are contiguous and sorted by label.
+     */
+    private static final class PieceTrie {
+        static final int ROOT = 0;
+
+        private final int[] firstChild;
+        private final int[] childEnd;
+        private final byte[] labels;
+        private final int[] values;
+
+        PieceTrie(List<byte[]> keys, List<Integer> ids) {
+            int count = keys.size();
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys.get(a), keys.get(b)));
+
+            byte[][] sortedKeys = new byte[count][];
+            int[] sortedIds = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedKeys[i] = keys.get(order[i]);
+                sortedIds[i] = ids.get(order[i]);
+            }
+
+            // Each node covers the range of sorted keys sharing its prefix
+            IntList rangeStart = new IntList();
+            IntList rangeEnd = new IntList();
+            IntList depth = new IntList();
+            IntList first = new IntList();
+            IntList end = new IntList();
+            IntList value = new IntList();
+            ByteList label = new ByteList();
+
+            rangeStart.add(0);
+            rangeEnd.add(count);
+            depth.add(0);
+            label.add((byte) 0);
+
+            for (int node = 0; node < rangeStart.size(); node++) {
+                int lo = rangeStart.get(node);
+                int hi = rangeEnd.get(node);
+                int d = depth.get(node);
+
+                // The key equal to the prefix sorts first in the range
+                int id = -1;
+                if (lo < hi && sortedKeys[lo].length == d) {
+                    id = sortedIds[lo];
+                    lo++;
+                }
+                value.add(id);
+                first.add(rangeStart.size());
+
+                while (lo < hi) {
+                    byte b = sortedKeys[lo][d];
+                    int groupEnd = lo + 1;
+                    while (groupEnd < hi && sortedKeys[groupEnd][d] == b) {
+                        groupEnd++;
+                    }
+                    rangeStart.add(lo);
+                    rangeEnd.add(groupEnd);
+                    depth.add(d + 1);
+                    label.add(b);
+                    lo = groupEnd;
+                }
+                end.add(rangeStart.size());
+            }
+
+            this.firstChild = first.toArray();
+            this.childEnd = end.toArray();
+            this.labels = label.toArray();
+            this.values = value.toArray();
+        }
+
+        /**
+         * Gets the child of a node along a byte, or -1 if there is none
+         */
+        int child(int node, byte b) {
+            int lo = firstChild[node];
+            int hi = childEnd[node] - 1;
+            int key = b & 0xFF;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int midKey = labels[mid] & 0xFF;
+                if (midKey < key) {
+                    lo = mid + 1;
+                } else if (midKey > key) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Gets the piece ID ending at a node, or -1 if no piece ends there
+         */
+        int value(int node) {
+            return values[node];
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class ByteList {
+        private byte[] values = new byte[1024];
+        private int size;
+
+        void add(byte value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Holds no native resources
+    }
+}
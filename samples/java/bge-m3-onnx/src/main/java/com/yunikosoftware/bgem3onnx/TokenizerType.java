@@ -0,0 +1,19 @@
+package com.yunikosoftware.bgem3onnx;
+
+/**
+ * Supported tokenizer implementations
+ */
+public enum TokenizerType {
+    /**
+     * Tokenizer ONNX model run by ONNX Runtime with the ONNX Runtime Extensions
+     * custom operators (default)
+     */
+    ONNX,
+
+    /**
+     * Pure-Java SentencePiece tokenizer using the vocabulary embedded in the
+     * tokenizer ONNX model. Produces the same token IDs without an ONNX Runtime
+     * session.
+     */
+    SENTENCEPIECE
+}
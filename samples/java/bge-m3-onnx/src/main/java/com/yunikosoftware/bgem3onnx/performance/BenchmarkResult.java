@@ -6,6 +6,11 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  * Benchmark result data structure
  */
 public class BenchmarkResult {
+    /** Latencies were measured per text */
+    public static final String LATENCY_SCOPE_TEXT = "text";
+    /** Latencies were measured per batch of texts */
+    public static final String LATENCY_SCOPE_BATCH = "batch";
+
     @JsonProperty("scenario")
     private String scenario;
     
@@ -27,6 +32,21 @@ public class BenchmarkResult {
     @JsonProperty("max_latency_ms")
     private double maxLatencyMs;
     
+    @JsonProperty("p90_latency_ms")
+    private double p90LatencyMs;
+    
+    @JsonProperty("p95_latency_ms")
+    private double p95LatencyMs;
+    
+    @JsonProperty("p99_latency_ms")
+    private double p99LatencyMs;
+    
+    @JsonProperty("p999_latency_ms")
+    private double p999LatencyMs;
+    
+    @JsonProperty("stddev_latency_ms")
+    private double stdDevLatencyMs;
+    
     @JsonProperty("throughput_texts_per_second")
     private double throughputTextsPerSecond;
     
@@ -39,6 +59,10 @@ public class BenchmarkResult {
     @JsonProperty("per_text_latencies_ms")
     private double[] perTextLatenciesMs;
     
+    // What one latency sample covers, a text or a whole batch
+    @JsonProperty("latency_scope")
+    private String latencyScope = LATENCY_SCOPE_TEXT;
+    
     @JsonProperty("execution_provider")
     private String executionProvider;
     
@@ -66,6 +90,25 @@ public class BenchmarkResult {
         this.executionProvider = executionProvider;
     }
 
+    /**
+     * Creates a result whose latency statistics are taken from a histogram of
+     * latencies, one per text unless the latency scope is set to batch
+     */
+    public BenchmarkResult(String scenario, double totalTimeSeconds, double initializationTimeSeconds,
+                          LatencyHistogram latencies, double throughputTextsPerSecond, int successfulEmbeddings,
+                          int failedEmbeddings, double[] perTextLatenciesMs, String executionProvider) {
+        this(scenario, totalTimeSeconds, initializationTimeSeconds,
+             LatencyHistogram.toMillis(latencies.getMean()), latencies.getValueAtPercentileMs(50),
+             LatencyHistogram.toMillis(latencies.getMin()), LatencyHistogram.toMillis(latencies.getMax()),
+             throughputTextsPerSecond, successfulEmbeddings, failedEmbeddings, perTextLatenciesMs,
+             executionProvider);
+        this.p90LatencyMs = latencies.getValueAtPercentileMs(90);
+        this.p95LatencyMs = latencies.getValueAtPercentileMs(95);
+        this.p99LatencyMs = latencies.getValueAtPercentileMs(99);
+        this.p999LatencyMs = latencies.getValueAtPercentileMs(99.9);
+        this.stdDevLatencyMs = LatencyHistogram.toMillis(latencies.getStdDev());
+    }
+
     public BenchmarkResult(String scenario, String error, String executionProvider) {
         this.scenario = scenario;
         this.error = error;
@@ -104,6 +147,21 @@ public class BenchmarkResult {
     public double getMaxLatencyMs() { return maxLatencyMs; }
     public void setMaxLatencyMs(double maxLatencyMs) { this.maxLatencyMs = maxLatencyMs; }
 
+    public double getP90LatencyMs() { return p90LatencyMs; }
+    public void setP90LatencyMs(double p90LatencyMs) { this.p90LatencyMs = p90LatencyMs; }
+
+    public double getP95LatencyMs() { return p95LatencyMs; }
+    public void setP95LatencyMs(double p95LatencyMs) { this.p95LatencyMs = p95LatencyMs; }
+
+    public double getP99LatencyMs() { return p99LatencyMs; }
+    public void setP99LatencyMs(double p99LatencyMs) { this.p99LatencyMs = p99LatencyMs; }
+
+    public double getP999LatencyMs() { return p999LatencyMs; }
+    public void setP999LatencyMs(double p999LatencyMs) { this.p999LatencyMs = p999LatencyMs; }
+
+    public double getStdDevLatencyMs() { return stdDevLatencyMs; }
+    public void setStdDevLatencyMs(double stdDevLatencyMs) { this.stdDevLatencyMs = stdDevLatencyMs; }
+
     public double getThroughputTextsPerSecond() { return throughputTextsPerSecond; }
     public void setThroughputTextsPerSecond(double throughputTextsPerSecond) { this.throughputTextsPerSecond = throughputTextsPerSecond; }
 
@@ -116,6 +174,9 @@ public class BenchmarkResult {
     public double[] getPerTextLatenciesMs() { return perTextLatenciesMs; }
     public void setPerTextLatenciesMs(double[] perTextLatenciesMs) { this.perTextLatenciesMs = perTextLatenciesMs; }
 
+    public String getLatencyScope() { return latencyScope; }
+    public void setLatencyScope(String latencyScope) { this.latencyScope = latencyScope; }
+
     public String getExecutionProvider() { return executionProvider; }
     public void setExecutionProvider(String executionProvider) { this.executionProvider = executionProvider; }
 
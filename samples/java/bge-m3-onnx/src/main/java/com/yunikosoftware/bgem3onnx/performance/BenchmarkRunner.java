@@ -1,10 +1,10 @@
 package com.yunikosoftware.bgem3onnx.performance;
 
 import com.yunikosoftware.bgem3onnx.ExecutionProvider;
+import com.yunikosoftware.bgem3onnx.M3BatchPlanner;
 import com.yunikosoftware.bgem3onnx.M3Embedder;
 import com.yunikosoftware.bgem3onnx.M3EmbedderFactory;
 
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -35,14 +35,15 @@ public class BenchmarkRunner {
         }
 
         // Run benchmark
-        long totalStartTime = System.currentTimeMillis();
+        long totalStartTime = System.nanoTime();
         double[] latencies = new double[texts.size()];
+        LatencyHistogram histogram = new LatencyHistogram();
         int successCount = 0;
         int failureCount = 0;
 
         for (int i = 0; i < texts.size(); i++) {
             TestText textItem = texts.get(i);
-            long textStartTime = System.currentTimeMillis();
+            long textStartTime = System.nanoTime();
 
             try {
                 embedder.generateEmbeddings(textItem.getText());
@@ -52,24 +53,22 @@ public class BenchmarkRunner {
                 failureCount++;
             }
 
-            double latencyMs = System.currentTimeMillis() - textStartTime;
-            latencies[i] = latencyMs;
+            long latencyNanos = System.nanoTime() - textStartTime;
+            histogram.record(latencyNanos);
+            latencies[i] = LatencyHistogram.toMillis(latencyNanos);
 
             if ((i + 1) % 100 == 0) {
                 System.out.println("Processed " + (i + 1) + "/" + texts.size() + " texts");
             }
         }
 
-        double totalTimeSeconds = (System.currentTimeMillis() - totalStartTime) / 1000.0;
+        double totalTimeSeconds = (System.nanoTime() - totalStartTime) / 1e9;
 
         return new BenchmarkResult(
             scenarioName,
             totalTimeSeconds,
             initTime,
-            Arrays.stream(latencies).average().orElse(0),
-            getMedian(latencies),
-            Arrays.stream(latencies).min().orElse(0),
-            Arrays.stream(latencies).max().orElse(0),
+            histogram,
             texts.size() / totalTimeSeconds,
             successCount,
             failureCount,
@@ -84,9 +83,9 @@ public class BenchmarkRunner {
     public BenchmarkResult benchmarkCpu(List<TestText> texts) {
         try {
             // Initialize model
-            long initStartTime = System.currentTimeMillis();
+            long initStartTime = System.nanoTime();
             M3Embedder embedder = M3EmbedderFactory.createCpuOptimized(tokenizerPath, modelPath);
-            double initTime = (System.currentTimeMillis() - initStartTime) / 1000.0;
+            double initTime = (System.nanoTime() - initStartTime) / 1e9;
 
             try {
                 return runBenchmarkCore(texts, "onnx_cpu", embedder, initTime, ExecutionProvider.CPU);
@@ -98,15 +97,83 @@ public class BenchmarkRunner {
         }
     }
 
+    /**
+     * Benchmark CPU execution provider with length-bucketed batching. Texts are
+     * submitted in chunks and one latency is recorded per chunk, so the latency
+     * statistics of this scenario are per batch rather than per text.
+     */
+    public BenchmarkResult benchmarkCpuBatched(List<TestText> texts, M3BatchPlanner planner, int chunkSize) {
+        String scenarioName = "onnx_cpu_batched";
+        try {
+            // Initialize model
+            long initStartTime = System.nanoTime();
+            M3Embedder embedder = M3EmbedderFactory.createCpuOptimized(tokenizerPath, modelPath);
+            double initTime = (System.nanoTime() - initStartTime) / 1e9;
+
+            try {
+                System.out.println("Benchmarking " + scenarioName + "...");
+
+                // Warm up
+                embedder.generateEmbeddings(List.of("warm up text"), planner);
+
+                long totalStartTime = System.nanoTime();
+                double[] latencies = new double[(texts.size() + chunkSize - 1) / chunkSize];
+                LatencyHistogram histogram = new LatencyHistogram();
+                int successCount = 0;
+                int failureCount = 0;
+
+                for (int start = 0; start < texts.size(); start += chunkSize) {
+                    int end = Math.min(start + chunkSize, texts.size());
+                    List<String> chunk = texts.subList(start, end).stream().map(TestText::getText).toList();
+                    long chunkStartTime = System.nanoTime();
+
+                    try {
+                        embedder.generateEmbeddings(chunk, planner);
+                        successCount += chunk.size();
+                    } catch (Exception ex) {
+                        System.err.println("Error processing texts " + start + "-" + (end - 1) + ": " + ex.getMessage());
+                        failureCount += chunk.size();
+                    }
+
+                    long latencyNanos = System.nanoTime() - chunkStartTime;
+                    histogram.record(latencyNanos);
+                    latencies[start / chunkSize] = LatencyHistogram.toMillis(latencyNanos);
+                    System.out.println("Processed " + end + "/" + texts.size() + " texts");
+                }
+
+                double totalTimeSeconds = (System.nanoTime() - totalStartTime) / 1e9;
+                System.out.printf("Padding ratio: %.1f%%%n", planner.getPaddingRatio() * 100);
+
+                BenchmarkResult result = new BenchmarkResult(
+                    scenarioName,
+                    totalTimeSeconds,
+                    initTime,
+                    histogram,
+                    texts.size() / totalTimeSeconds,
+                    successCount,
+                    failureCount,
+                    latencies,
+                    ExecutionProvider.CPU.toString()
+                );
+                result.setLatencyScope(BenchmarkResult.LATENCY_SCOPE_BATCH);
+                return result;
+            } finally {
+                embedder.close();
+            }
+        } catch (Exception ex) {
+            return new BenchmarkResult(scenarioName, ex.getMessage(), ExecutionProvider.CPU.toString());
+        }
+    }
+
     /**
      * Benchmark CUDA execution provider
      */
     public BenchmarkResult benchmarkCuda(List<TestText> texts) {
         try {
             // Initialize model
-            long initStartTime = System.currentTimeMillis();
+            long initStartTime = System.nanoTime();
             M3Embedder embedder = M3EmbedderFactory.createCudaOptimized(tokenizerPath, modelPath);
-            double initTime = (System.currentTimeMillis() - initStartTime) / 1000.0;
+            double initTime = (System.nanoTime() - initStartTime) / 1e9;
 
             try {
                 // Verify CUDA is being used
@@ -125,19 +192,4 @@ public class BenchmarkRunner {
             return new BenchmarkResult("onnx_cuda", ex.getMessage(), "UNKNOWN");
         }
     }
-
-    /**
-     * Calculate median of an array of doubles
-     */
-    private static double getMedian(double[] values) {
-        double[] sorted = values.clone();
-        Arrays.sort(sorted);
-        int length = sorted.length;
-        
-        if (length % 2 == 0) {
-            return (sorted[length / 2 - 1] + sorted[length / 2]) / 2.0;
-        } else {
-            return sorted[length / 2];
-        }
-    }
-} 
\ No newline at end of file
+}
\ No newline at end of file
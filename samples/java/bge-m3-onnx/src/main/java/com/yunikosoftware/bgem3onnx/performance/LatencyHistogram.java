@@ -0,0 +1,150 @@
+package com.yunikosoftware.bgem3onnx.performance;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets in the style of
+ * HdrHistogram. Values below 1024 ns are counted exactly; above that, every
+ * power of two is split into 512 buckets, so any recorded value is reported
+ * within 0.2% of its true value. Count, mean, standard deviation, minimum and
+ * maximum are tracked exactly. Not thread-safe.
+ */
+public class LatencyHistogram {
+    // Values below 2^LINEAR_BITS get a bucket each
+    private static final int LINEAR_BITS = 10;
+    private static final int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+    // Each further power of two is split into this many buckets
+    private static final int SUB_BUCKETS = LINEAR_BUCKETS / 2;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+    private double sumOfSquares;
+
+    /**
+     * Records one latency
+     *
+     * @param valueNanos The latency in nanoseconds, as measured with
+     *                   {@link System#nanoTime()}. Negative values are recorded
+     *                   as 0.
+     */
+    public void record(long valueNanos) {
+        long value = Math.max(0, valueNanos);
+        counts[bucketIndex(value)]++;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        sumOfSquares += (double) value * value;
+    }
+
+    /**
+     * Gets the number of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the smallest recorded latency in nanoseconds (0 if empty)
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Gets the largest recorded latency in nanoseconds (0 if empty)
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the mean latency in nanoseconds (0 if empty)
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Gets the population standard deviation of the latencies in nanoseconds (0 if
+     * empty)
+     */
+    public double getStdDev() {
+        if (count == 0) {
+            return 0;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+    }
+
+    /**
+     * Gets the latency below or at which the given percentage of recorded values
+     * fall
+     *
+     * @param percentile Percentile between 0 and 100, e.g. 99.9
+     * @return The latency in nanoseconds, within 0.2% of a recorded value (0 if
+     *         empty)
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= rank) {
+                // The bucket midpoint, kept inside the exactly known range
+                return Math.min(max, Math.max(min, bucketMidpoint(index)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gets a percentile in milliseconds
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return The latency in milliseconds
+     */
+    public double getValueAtPercentileMs(double percentile) {
+        return toMillis(getValueAtPercentile(percentile));
+    }
+
+    /**
+     * Converts nanoseconds to fractional milliseconds
+     */
+    public static double toMillis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+
+        // Keep the LINEAR_BITS - 1 bits below the highest set bit
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - (LINEAR_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (magnitude - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketMidpoint(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+
+        int octave = (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = octave + 1;
+        long lower = (long) (subBucket + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) / 2;
+    }
+}
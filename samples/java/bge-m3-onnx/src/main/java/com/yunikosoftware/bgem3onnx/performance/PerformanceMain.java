@@ -3,6 +3,7 @@ package com.yunikosoftware.bgem3onnx.performance;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.yunikosoftware.bgem3onnx.M3BatchPlanner;
 import com.yunikosoftware.bgem3onnx.RepositoryUtils;
 
 import java.io.File;
@@ -87,7 +88,25 @@ public class PerformanceMain {
                 scenarios.put("onnx_cpu", new BenchmarkResult("onnx_cpu", ex.getMessage(), "CPU"));
             }
 
-            // Benchmark 2: ONNX CUDA
+            // Benchmark 2: ONNX CPU with length-bucketed batching
+            try {
+                System.out.println("\n" + "-".repeat(40));
+                BenchmarkResult batchedResult = runner.benchmarkCpuBatched(texts, new M3BatchPlanner(), 256);
+                scenarios.put("onnx_cpu_batched", batchedResult);
+
+                if (!batchedResult.hasError()) {
+                    System.out.printf("ONNX CPU batched: %.1fms avg per batch, %.1f texts/sec%n", 
+                                    batchedResult.getAverageLatencyMs(), 
+                                    batchedResult.getThroughputTextsPerSecond());
+                } else {
+                    System.out.println("ONNX CPU batched: ERROR - " + batchedResult.getError());
+                }
+            } catch (Exception ex) {
+                System.err.println("ONNX CPU batched benchmark failed: " + ex.getMessage());
+                scenarios.put("onnx_cpu_batched", new BenchmarkResult("onnx_cpu_batched", ex.getMessage(), "CPU"));
+            }
+
+            // Benchmark 3: ONNX CUDA
             try {
                 System.out.println("\n" + "-".repeat(40));
                 BenchmarkResult cudaResult = runner.benchmarkCuda(texts);
@@ -119,21 +138,25 @@ public class PerformanceMain {
             System.out.println("=".repeat(60));
 
             if (!scenarios.isEmpty()) {
-                System.out.printf("%-20s %-18s %-18s %s%n", "Scenario", "Avg Latency (ms)", "Throughput (t/s)", "Status");
-                System.out.println("-".repeat(70));
+                System.out.printf("%-20s %-18s %-18s %-18s %s%n", "Scenario", "Avg Latency (ms)", "P99 Latency (ms)",
+                                  "Throughput (t/s)", "Status");
+                System.out.println("-".repeat(89));
 
                 for (Map.Entry<String, BenchmarkResult> entry : scenarios.entrySet()) {
                     String scenarioName = entry.getKey();
                     BenchmarkResult scenarioData = entry.getValue();
 
                     if (scenarioData.hasError()) {
-                        System.out.printf("%-20s %-18s %-18s %s%n", scenarioName, "ERROR", "ERROR", scenarioData.getError());
+                        System.out.printf("%-20s %-18s %-18s %-18s %s%n", scenarioName, "ERROR", "ERROR", "ERROR",
+                                          scenarioData.getError());
                     } else {
-                        System.out.printf("%-20s %-18.1f %-18.1f %s%n", 
+                        System.out.printf("%-20s %-18.1f %-18.1f %-18.1f %s%n", 
                                         scenarioName, 
                                         scenarioData.getAverageLatencyMs(), 
+                                        scenarioData.getP99LatencyMs(), 
                                         scenarioData.getThroughputTextsPerSecond(), 
-                                        "Success");
+                                        BenchmarkResult.LATENCY_SCOPE_BATCH.equals(scenarioData.getLatencyScope())
+                                            ? "Success (latency per batch)" : "Success");
                     }
                 }
             }
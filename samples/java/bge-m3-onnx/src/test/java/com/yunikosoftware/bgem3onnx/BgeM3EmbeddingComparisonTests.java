@@ -107,20 +107,7 @@ public class BgeM3EmbeddingComparisonTests {
                             + embedder.getConfig().getExecutionProvider());
                 }
 
-                double denseSimilarity = calculateCosineSimilarity(result.getDenseEmbedding(),
-                        referenceEmbedding.dense_vecs);
-                if (denseSimilarity <= 0.9999) {
-                    failedComparisons.add(
-                            String.format("%s Dense similarity %.10f for '%s'", providerName, denseSimilarity, text));
-                }
-
-                if (!areSparseWeightsEqual(result.getSparseWeights(), referenceEmbedding.lexical_weights)) {
-                    failedComparisons.add(String.format("%s Sparse weights mismatch for '%s'", providerName, text));
-                }
-
-                if (!areColBertVectorsEqual(result.getColBertVectors(), referenceEmbedding.colbert_vecs)) {
-                    failedComparisons.add(String.format("%s ColBERT vectors mismatch for '%s'", providerName, text));
-                }
+                compareWithReference(result, referenceEmbedding, providerName, text, failedComparisons);
             } catch (Exception ex) {
                 failedComparisons.add(String.format("%s Exception for '%s': %s", providerName, text, ex.getMessage()));
             }
@@ -133,6 +120,45 @@ public class BgeM3EmbeddingComparisonTests {
         }
     }
 
+    @Test
+    public void cpuBatchEmbeddings_ShouldMatchPythonEmbeddings() throws Exception {
+        cpuEmbedder = M3EmbedderFactory.createCpuOptimized(tokenizerPath, modelPath);
+
+        List<String> texts = new ArrayList<>(referenceEmbeddings.keySet());
+        List<M3EmbeddingOutput> results = cpuEmbedder.generateEmbeddings(texts);
+
+        List<String> failedComparisons = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            compareWithReference(results.get(i), referenceEmbeddings.get(texts.get(i)), "CPU batch", texts.get(i),
+                    failedComparisons);
+        }
+
+        if (!failedComparisons.isEmpty()) {
+            fail("CPU batch embedding comparison failures:\n" + String.join("\n", failedComparisons));
+        }
+    }
+
+    /**
+     * Helper method to compare a single embedding output with its Python reference
+     */
+    private void compareWithReference(M3EmbeddingOutput result, BgeM3ReferenceEmbedding referenceEmbedding,
+            String providerName, String text, List<String> failedComparisons) {
+        double denseSimilarity = calculateCosineSimilarity(result.getDenseEmbedding(),
+                referenceEmbedding.dense_vecs);
+        if (denseSimilarity <= 0.9999) {
+            failedComparisons.add(
+                    String.format("%s Dense similarity %.10f for '%s'", providerName, denseSimilarity, text));
+        }
+
+        if (!areSparseWeightsEqual(result.getSparseWeights(), referenceEmbedding.lexical_weights)) {
+            failedComparisons.add(String.format("%s Sparse weights mismatch for '%s'", providerName, text));
+        }
+
+        if (!areColBertVectorsEqual(result.getColBertVectors(), referenceEmbedding.colbert_vecs)) {
+            failedComparisons.add(String.format("%s ColBERT vectors mismatch for '%s'", providerName, text));
+        }
+    }
+
     private static double calculateCosineSimilarity(float[] vectorA, float[] vectorB) {
         if (vectorA.length != vectorB.length) {
             throw new IllegalArgumentException("Vectors must be of the same length");
@@ -0,0 +1,101 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class M3BatchPlannerTests {
+    @Test
+    public void plan_ShouldCloseBatchesAtThePaddedTokenBudget() {
+        M3BatchPlanner planner = new M3BatchPlanner(32, 100);
+
+        // Sorted 8, 50, 60: 8 and 50 pad to 2 x 50 = 100 tokens, adding 60 would
+        // pad to 3 x 60 = 180, so 60 goes into a batch of its own
+        M3BatchPlanner.BatchPlan plan = planner.plan(new int[] { 60, 8, 50 });
+
+        assertEquals(2, plan.getBatches().size());
+        assertArrayEquals(new int[] { 1, 2 }, plan.getBatches().get(0));
+        assertArrayEquals(new int[] { 0 }, plan.getBatches().get(1));
+        assertEquals(118, plan.getTokens());
+        assertEquals(160, plan.getPaddedTokens());
+        assertEquals(42.0 / 160, plan.getPaddingRatio(), 1e-12);
+    }
+
+    @Test
+    public void plan_ShouldCloseBatchesAtTheMaximumBatchSize() {
+        M3BatchPlanner planner = new M3BatchPlanner(2, 16384);
+
+        M3BatchPlanner.BatchPlan plan = planner.plan(new int[] { 5, 5, 5, 5, 5 });
+
+        assertEquals(3, plan.getBatches().size());
+        assertEquals(2, plan.getBatches().get(0).length);
+        assertEquals(2, plan.getBatches().get(1).length);
+        assertEquals(1, plan.getBatches().get(2).length);
+        assertEquals(0, plan.getPaddingRatio());
+    }
+
+    @Test
+    public void plan_ShouldGroupTextsOfSimilarLength() {
+        M3BatchPlanner planner = new M3BatchPlanner(2, 16384);
+
+        M3BatchPlanner.BatchPlan plan = planner.plan(new int[] { 100, 3, 98, 4 });
+
+        assertArrayEquals(new int[] { 1, 3 }, plan.getBatches().get(0));
+        assertArrayEquals(new int[] { 2, 0 }, plan.getBatches().get(1));
+        assertEquals(205, plan.getTokens());
+        assertEquals(208, plan.getPaddedTokens());
+    }
+
+    @Test
+    public void plan_ShouldKeepTextsOfEqualLengthInInputOrder() {
+        M3BatchPlanner planner = new M3BatchPlanner(2, 16384);
+
+        M3BatchPlanner.BatchPlan plan = planner.plan(new int[] { 5, 3, 5, 3 });
+
+        assertArrayEquals(new int[] { 1, 3 }, plan.getBatches().get(0));
+        assertArrayEquals(new int[] { 0, 2 }, plan.getBatches().get(1));
+    }
+
+    @Test
+    public void plan_ShouldPlaceTextsOverTheBudgetInBatchesOfTheirOwn() {
+        M3BatchPlanner planner = new M3BatchPlanner(32, 100);
+
+        M3BatchPlanner.BatchPlan plan = planner.plan(new int[] { 150, 10, 120 });
+
+        assertEquals(3, plan.getBatches().size());
+        assertArrayEquals(new int[] { 1 }, plan.getBatches().get(0));
+        assertArrayEquals(new int[] { 2 }, plan.getBatches().get(1));
+        assertArrayEquals(new int[] { 0 }, plan.getBatches().get(2));
+    }
+
+    @Test
+    public void getPaddingRatio_ShouldAccumulateOverAllPlans() {
+        M3BatchPlanner planner = new M3BatchPlanner(32, 100);
+
+        planner.plan(new int[] { 60, 8, 50 });
+        planner.plan(new int[] { 10, 30 });
+
+        assertEquals(158, planner.getTotalTokens());
+        assertEquals(220, planner.getTotalPaddedTokens());
+        assertEquals(62.0 / 220, planner.getPaddingRatio(), 1e-12);
+    }
+
+    @Test
+    public void plan_ShouldReturnNoBatchesForNoTexts() {
+        M3BatchPlanner planner = new M3BatchPlanner();
+
+        M3BatchPlanner.BatchPlan plan = planner.plan(new int[0]);
+
+        assertEquals(0, plan.getBatches().size());
+        assertEquals(0, plan.getPaddingRatio());
+        assertEquals(0, planner.getPaddingRatio());
+    }
+
+    @Test
+    public void constructor_ShouldRejectNonPositiveLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new M3BatchPlanner(0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new M3BatchPlanner(32, 0));
+    }
+}
@@ -0,0 +1,161 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class M3CachingEmbedderTests {
+    @TempDir
+    private Path directory;
+
+    /**
+     * Generator that records the texts of each call and returns a new output for
+     * every text
+     */
+    private static class CountingGenerator implements M3EmbeddingGenerator {
+        public final List<List<String>> calls = new ArrayList<>();
+
+        @Override
+        public M3EmbeddingOutput generateEmbeddings(String text, Set<M3OutputType> outputTypes) {
+            return generateEmbeddings(List.of(text), outputTypes).get(0);
+        }
+
+        @Override
+        public List<M3EmbeddingOutput> generateEmbeddings(List<String> texts, Set<M3OutputType> outputTypes) {
+            calls.add(List.copyOf(texts));
+            List<M3EmbeddingOutput> outputs = new ArrayList<>();
+            for (String text : texts) {
+                outputs.add(M3EmbeddingOutput.ofDense(new float[] { text.length(), outputTypes.size() },
+                        new int[] { 0, 2 }));
+            }
+            return outputs;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldAnswerRepeatedTextsFromTheCache() throws Exception {
+        CountingGenerator generator = new CountingGenerator();
+        try (M3CachingEmbedder embedder = new M3CachingEmbedder(generator, 10)) {
+            M3EmbeddingOutput first = embedder.generateEmbeddings("text");
+            M3EmbeddingOutput second = embedder.generateEmbeddings("text");
+
+            assertSame(first, second);
+            assertEquals(1, generator.calls.size());
+            assertEquals(1, embedder.getHitCount());
+            assertEquals(1, embedder.getMissCount());
+            assertEquals(0.5, embedder.getHitRate());
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldKeyOutputsByOutputTypes() throws Exception {
+        CountingGenerator generator = new CountingGenerator();
+        try (M3CachingEmbedder embedder = new M3CachingEmbedder(generator, 10)) {
+            M3EmbeddingOutput dense = embedder.generateEmbeddings("text", EnumSet.of(M3OutputType.DENSE));
+            M3EmbeddingOutput all = embedder.generateEmbeddings("text", M3OutputType.ALL);
+
+            assertNotSame(dense, all);
+            assertEquals(2, generator.calls.size());
+            assertEquals(2, embedder.getSize());
+            assertSame(dense, embedder.generateEmbeddings("text", EnumSet.of(M3OutputType.DENSE)));
+            assertSame(all, embedder.generateEmbeddings("text", M3OutputType.ALL));
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldNotBeAffectedByChangesToTheCallersOutputTypes() throws Exception {
+        CountingGenerator generator = new CountingGenerator();
+        try (M3CachingEmbedder embedder = new M3CachingEmbedder(generator, 10)) {
+            Set<M3OutputType> outputTypes = EnumSet.of(M3OutputType.DENSE);
+            M3EmbeddingOutput dense = embedder.generateEmbeddings("text", outputTypes);
+
+            outputTypes.add(M3OutputType.SPARSE);
+
+            assertSame(dense, embedder.generateEmbeddings("text", EnumSet.of(M3OutputType.DENSE)));
+            assertEquals(1, generator.calls.size());
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldComputeMissingTextsOfABatchInOneCall() throws Exception {
+        CountingGenerator generator = new CountingGenerator();
+        try (M3CachingEmbedder embedder = new M3CachingEmbedder(generator, 10)) {
+            M3EmbeddingOutput cached = embedder.generateEmbeddings("b");
+
+            List<M3EmbeddingOutput> outputs = embedder.generateEmbeddings(List.of("a", "b", "cc", "a", "b"));
+
+            assertEquals(List.of(List.of("b"), List.of("a", "cc")), generator.calls);
+            assertEquals(5, outputs.size());
+            assertSame(cached, outputs.get(1));
+            assertSame(cached, outputs.get(4));
+            assertSame(outputs.get(0), outputs.get(3));
+            assertEquals(2f, outputs.get(2).getDenseEmbedding()[0]);
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldEvictBeyondMaxEntries() throws Exception {
+        CountingGenerator generator = new CountingGenerator();
+        try (M3CachingEmbedder embedder = new M3CachingEmbedder(generator, 2)) {
+            embedder.generateEmbeddings(List.of("a", "b", "c"));
+
+            assertEquals(2, embedder.getSize());
+            assertEquals(1, embedder.getEvictionCount());
+
+            // "a" was evicted and is computed again
+            embedder.generateEmbeddings("a");
+            assertEquals(List.of("a"), generator.calls.get(1));
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldStayWithinMaxBytes() throws Exception {
+        CountingGenerator generator = new CountingGenerator();
+        M3EmbeddingOutput output = generator.generateEmbeddings("a", M3OutputType.ALL);
+        long entryBytes = M3CachingEmbedder.estimateBytes(
+                new M3CachingEmbedder.CacheKey("a", M3OutputType.ALL), output);
+
+        // 16 stripes, each with room for one entry
+        try (M3CachingEmbedder embedder = new M3CachingEmbedder(generator, 0, 16 * entryBytes)) {
+            for (int i = 0; i < 100; i++) {
+                embedder.generateEmbeddings(Character.toString('a' + i % 10));
+            }
+
+            assertEquals(embedder.getSize() * entryBytes, embedder.getSizeInBytes());
+            assertTrue(embedder.getSizeInBytes() <= 16 * entryBytes);
+        }
+    }
+
+    @Test
+    public void generateEmbeddings_ShouldAnswerMemoryMissesFromThePersistentCache() throws Exception {
+        try (M3PersistentEmbeddingCache persistentCache = new M3PersistentEmbeddingCache(directory, "model")) {
+            CountingGenerator first = new CountingGenerator();
+            try (M3CachingEmbedder embedder = new M3CachingEmbedder(first, 10, 0, persistentCache)) {
+                embedder.generateEmbeddings(List.of("a", "bb"));
+            }
+
+            CountingGenerator second = new CountingGenerator();
+            try (M3CachingEmbedder embedder = new M3CachingEmbedder(second, 10, 0, persistentCache)) {
+                List<M3EmbeddingOutput> outputs = embedder.generateEmbeddings(List.of("bb", "c"));
+
+                assertEquals(List.of(List.of("c")), second.calls);
+                assertEquals(2f, outputs.get(0).getDenseEmbedding()[0]);
+                assertEquals(2, embedder.getSize());
+            }
+        }
+    }
+}
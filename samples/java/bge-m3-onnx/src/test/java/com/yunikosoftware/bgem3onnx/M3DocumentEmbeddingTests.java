@@ -0,0 +1,70 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class M3DocumentEmbeddingTests {
+    private static M3EmbeddingOutput createChunk(float[] dense, M3SparseVector sparse) {
+        return new M3EmbeddingOutput(dense, sparse, null, new int[] { 0, 2 });
+    }
+
+    @Test
+    public void constructor_ShouldPoolDenseEmbeddingsWeightedByChunkLength() {
+        List<M3EmbeddingOutput> chunks = List.of(
+                createChunk(new float[] { 1, 0 }, null),
+                createChunk(new float[] { 0, 1 }, null));
+
+        M3DocumentEmbedding document = new M3DocumentEmbedding(chunks, new int[] { 0, 3 }, new int[] { 3, 4 });
+
+        float norm = (float) Math.sqrt(10);
+        assertArrayEquals(new float[] { 3 / norm, 1 / norm }, document.getDenseEmbedding(), 1e-6f);
+        assertNull(document.getSparseVector());
+    }
+
+    @Test
+    public void constructor_ShouldCountEmptyChunksOnce() {
+        List<M3EmbeddingOutput> chunks = List.of(createChunk(new float[] { 0, -2 }, null));
+
+        M3DocumentEmbedding document = new M3DocumentEmbedding(chunks, new int[] { 0 }, new int[] { 0 });
+
+        assertArrayEquals(new float[] { 0, -1 }, document.getDenseEmbedding());
+    }
+
+    @Test
+    public void constructor_ShouldLeaveZeroEmbeddingsUnnormalized() {
+        List<M3EmbeddingOutput> chunks = List.of(createChunk(new float[] { 0, 0 }, null));
+
+        M3DocumentEmbedding document = new M3DocumentEmbedding(chunks, new int[] { 0 }, new int[] { 2 });
+
+        assertArrayEquals(new float[] { 0, 0 }, document.getDenseEmbedding());
+    }
+
+    @Test
+    public void constructor_ShouldKeepTheMaximumSparseWeightOfEachToken() {
+        List<M3EmbeddingOutput> chunks = List.of(
+                createChunk(null, M3SparseVector.of(new int[] { 5, 7 }, new float[] { 0.5f, 0.25f }, 2)),
+                createChunk(null, M3SparseVector.of(new int[] { 7, 9 }, new float[] { 0.75f, 0.125f }, 2)));
+
+        M3DocumentEmbedding document = new M3DocumentEmbedding(chunks, new int[] { 0, 2 }, new int[] { 3, 5 });
+
+        assertEquals(Map.of(5, 0.5f, 7, 0.75f, 9, 0.125f), document.getSparseWeights());
+        assertNull(document.getDenseEmbedding());
+    }
+
+    @Test
+    public void constructor_ShouldRejectMismatchedChunkRanges() {
+        List<M3EmbeddingOutput> chunks = List.of(createChunk(new float[] { 1 }, null));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new M3DocumentEmbedding(List.of(), new int[0], new int[0]));
+        assertThrows(IllegalArgumentException.class,
+                () -> new M3DocumentEmbedding(chunks, new int[] { 0, 1 }, new int[] { 1 }));
+    }
+}
@@ -0,0 +1,16 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class M3EmbedderFactoryTests {
+    @Test
+    public void createThroughputOptimized_ShouldRejectNonPositivePoolSizes() {
+        // Validated before any model file is read
+        assertThrows(IllegalArgumentException.class,
+                () -> M3EmbedderFactory.createThroughputOptimized("tokenizer.onnx", "model.onnx", 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> M3EmbedderFactory.createThroughputOptimized("tokenizer.onnx", "model.onnx", -1));
+    }
+}
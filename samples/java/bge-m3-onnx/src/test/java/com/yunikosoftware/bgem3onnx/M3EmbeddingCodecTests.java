@@ -0,0 +1,97 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class M3EmbeddingCodecTests {
+    private static M3EmbeddingOutput createOutput() {
+        return new M3EmbeddingOutput(new float[] { 0.5f, -1.25f, 3f },
+                M3SparseVector.of(new int[] { 42, 7 }, new float[] { 0.75f, 0.125f }, 2),
+                new M3ColBertMatrix(new float[] { 1, 2, 3, 4, 5, 6 }, 2, 3),
+                new int[] { 0, 7, 42, 2 });
+    }
+
+    @Test
+    public void encode_ThenDecode_ShouldRoundTripAllOutputTypes() {
+        M3EmbeddingOutput output = createOutput();
+
+        M3EmbeddingOutput decoded = M3EmbeddingCodec.decode(ByteBuffer.wrap(M3EmbeddingCodec.encode(output)));
+
+        assertArrayEquals(output.getTokenIds(), decoded.getTokenIds());
+        assertArrayEquals(output.getDenseEmbedding(), decoded.getDenseEmbedding());
+        assertEquals(output.getSparseWeights(), decoded.getSparseWeights());
+        assertEquals(2, decoded.getColBertMatrix().getRowCount());
+        assertEquals(3, decoded.getColBertMatrix().getDimension());
+        assertArrayEquals(output.getColBertMatrix().getData(), decoded.getColBertMatrix().getData());
+    }
+
+    @Test
+    public void encode_ShouldOmitTypesThatWereNotComputed() {
+        M3EmbeddingOutput output = M3EmbeddingOutput.ofDense(new float[] { 1f, 2f }, new int[] { 0, 5, 2 });
+
+        byte[] encoded = M3EmbeddingCodec.encode(output);
+        M3EmbeddingCodec.View view = M3EmbeddingCodec.wrap(ByteBuffer.wrap(encoded));
+
+        // Flags, token count, 3 token IDs, dimension, 2 values
+        assertEquals(4 * 8, encoded.length);
+        assertTrue(view.hasDense());
+        assertFalse(view.hasSparse());
+        assertFalse(view.hasColBert());
+        assertNull(view.getSparseWeights());
+        assertNull(view.getColBertVectors());
+        assertNull(view.toOutput().getSparseVector());
+        assertNull(view.toOutput().getColBertMatrix());
+    }
+
+    @Test
+    public void encodedSize_ShouldMatchEncodedLength() {
+        M3EmbeddingOutput output = createOutput();
+
+        int size = M3EmbeddingCodec.encodedSize(output);
+
+        assertEquals(M3EmbeddingCodec.encode(output).length, size);
+        assertEquals(size, M3EmbeddingCodec.wrap(ByteBuffer.wrap(M3EmbeddingCodec.encode(output))).getEncodedSize());
+    }
+
+    @Test
+    public void encode_ShouldAdvancePositionSoThatOutputsCanBeConcatenated() {
+        M3EmbeddingOutput first = createOutput();
+        M3EmbeddingOutput second = M3EmbeddingOutput.ofDense(new float[] { 9f }, new int[] { 0, 2 });
+        ByteBuffer buffer = ByteBuffer.allocate(M3EmbeddingCodec.encodedSize(first)
+                + M3EmbeddingCodec.encodedSize(second));
+
+        M3EmbeddingCodec.encode(first, buffer);
+        M3EmbeddingCodec.encode(second, buffer);
+
+        assertEquals(buffer.capacity(), buffer.position());
+        buffer.position(M3EmbeddingCodec.encodedSize(first));
+        assertArrayEquals(new float[] { 9f }, M3EmbeddingCodec.decode(buffer).getDenseEmbedding());
+    }
+
+    @Test
+    public void wrap_ShouldReadValuesInPlace() {
+        byte[] encoded = M3EmbeddingCodec.encode(createOutput());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length + 16);
+        buffer.position(16);
+        buffer.put(encoded);
+        buffer.position(16);
+
+        M3EmbeddingCodec.View view = M3EmbeddingCodec.wrap(buffer);
+
+        FloatBuffer colBert = view.getColBertVectors();
+        assertTrue(colBert.isDirect());
+        assertEquals(6, colBert.remaining());
+        assertEquals(4f, colBert.get(3));
+        assertEquals(7, view.getSparseTokenIds().get(0));
+        assertEquals(0.125f, view.getSparseWeights().get(0));
+        assertEquals(-1.25f, view.getDenseEmbedding().get(1));
+    }
+}
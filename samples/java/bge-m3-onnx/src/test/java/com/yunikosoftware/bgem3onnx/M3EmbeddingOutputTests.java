@@ -0,0 +1,56 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class M3EmbeddingOutputTests {
+    @Test
+    @SuppressWarnings("deprecation")
+    public void constructor_ShouldAcceptTheMapAndArrayRepresentation() {
+        Map<Integer, Float> sparseWeights = new HashMap<>(Map.of(7, 0.5f, 3, 0.25f));
+        float[][] colBertVectors = { { 1, 2 }, { 3, 4 } };
+
+        M3EmbeddingOutput output = new M3EmbeddingOutput(new float[] { 1 }, sparseWeights, colBertVectors,
+                new int[] { 0, 3, 7, 2 });
+
+        assertEquals(Map.of(3, 0.25f, 7, 0.5f), output.getSparseWeights());
+        assertArrayEquals(new int[] { 3, 7 }, output.getSparseVector().getTokenIds());
+        assertEquals(2, output.getColBertMatrix().getRowCount());
+        assertArrayEquals(colBertVectors, output.getColBertVectors());
+    }
+
+    @Test
+    public void fromArrays_ShouldKeepNullsForTypesThatWereNotComputed() {
+        M3EmbeddingOutput output = M3EmbeddingOutput.fromArrays(new float[] { 1 }, null, null, new int[] { 0, 2 });
+
+        assertNull(output.getSparseWeights());
+        assertNull(output.getColBertVectors());
+    }
+
+    @Test
+    public void getSparseWeights_ShouldReturnReadOnlyView() {
+        M3EmbeddingOutput output = M3EmbeddingOutput.fromArrays(null, Map.of(7, 0.5f), null, new int[] { 0, 7, 2 });
+
+        assertThrows(UnsupportedOperationException.class, () -> output.getSparseWeights().put(8, 1f));
+    }
+
+    @Test
+    public void getColBertVectors_ShouldReturnNewCopiesOnEachCall() {
+        M3EmbeddingOutput output = M3EmbeddingOutput.fromArrays(null, null, new float[][] { { 1, 2 } },
+                new int[] { 0, 5, 2 });
+
+        float[][] vectors = output.getColBertVectors();
+        vectors[0][0] = 9;
+
+        assertNotSame(vectors, output.getColBertVectors());
+        assertEquals(1f, output.getColBertVectors()[0][0]);
+    }
+}
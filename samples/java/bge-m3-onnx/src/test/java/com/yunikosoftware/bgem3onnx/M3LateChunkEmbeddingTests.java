@@ -0,0 +1,68 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class M3LateChunkEmbeddingTests {
+    // Row t holds the ColBERT vector of content token t
+    private static final M3ColBertMatrix COLBERT = new M3ColBertMatrix(new float[] {
+            1, 0,
+            0, 1,
+            3, 0,
+            0, 0 }, 4, 2);
+
+    private static M3EmbeddingOutput createDocument(M3ColBertMatrix colBert) {
+        return new M3EmbeddingOutput(new float[] { 1, 0 }, null, colBert,
+                new int[] { 0, 10, 11, 12, 13, 2 });
+    }
+
+    @Test
+    public void constructor_ShouldAverageTheVectorsOfEachChunk() {
+        M3LateChunkEmbedding embedding = new M3LateChunkEmbedding(createDocument(COLBERT),
+                new int[] { 0, 2 }, new int[] { 2, 3 });
+
+        float component = (float) (1 / Math.sqrt(2));
+        assertEquals(2, embedding.getChunkCount());
+        assertArrayEquals(new float[] { component, component }, embedding.getChunkEmbedding(0), 1e-6f);
+        assertArrayEquals(new float[] { 1, 0 }, embedding.getChunkEmbedding(1));
+        assertEquals(2, embedding.getChunkStart(1));
+        assertEquals(3, embedding.getChunkEnd(1));
+    }
+
+    @Test
+    public void constructor_ShouldReturnNullForChunksWithoutTokens() {
+        M3LateChunkEmbedding embedding = new M3LateChunkEmbedding(createDocument(COLBERT),
+                new int[] { 1, 4 }, new int[] { 1, 6 });
+
+        assertNull(embedding.getChunkEmbedding(0));
+        assertNull(embedding.getChunkEmbedding(1));
+    }
+
+    @Test
+    public void constructor_ShouldClipChunksToTheColBertRows() {
+        M3LateChunkEmbedding embedding = new M3LateChunkEmbedding(createDocument(COLBERT),
+                new int[] { 2 }, new int[] { 10 });
+
+        assertArrayEquals(new float[] { 1, 0 }, embedding.getChunkEmbedding(0));
+    }
+
+    @Test
+    public void constructor_ShouldLeaveZeroVectorsUnnormalized() {
+        M3LateChunkEmbedding embedding = new M3LateChunkEmbedding(createDocument(COLBERT),
+                new int[] { 3 }, new int[] { 4 });
+
+        assertArrayEquals(new float[] { 0, 0 }, embedding.getChunkEmbedding(0));
+    }
+
+    @Test
+    public void constructor_ShouldRequireColBertVectorsAndMatchingRanges() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new M3LateChunkEmbedding(createDocument(null), new int[] { 0 }, new int[] { 1 }));
+        assertThrows(IllegalArgumentException.class,
+                () -> new M3LateChunkEmbedding(createDocument(COLBERT), new int[] { 0, 1 }, new int[] { 1 }));
+    }
+}
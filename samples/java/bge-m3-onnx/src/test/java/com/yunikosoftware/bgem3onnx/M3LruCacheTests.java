@@ -0,0 +1,144 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class M3LruCacheTests {
+    // Integer keys that are multiples of 16 all fall into the first of 16 stripes
+    private static final int SAME_STRIPE = 16;
+
+    private static M3LruCache<Integer, String> createCache(long maxEntries, long maxWeight) {
+        return new M3LruCache<>(maxEntries, maxWeight, (key, value) -> value.length());
+    }
+
+    @Test
+    public void put_ShouldEvictLeastRecentlyUsedEntry() {
+        // Fewer than 8 entries make a single stripe
+        M3LruCache<Integer, String> cache = createCache(3, 0);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+
+        // Reading 1 makes 2 the least recently used entry
+        cache.get(1);
+        cache.put(4, "d");
+
+        assertNull(cache.get(2));
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals("d", cache.get(4));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void put_ShouldReplaceValueAndRefreshIt() {
+        M3LruCache<Integer, String> cache = createCache(2, 0);
+        cache.put(1, "a");
+        cache.put(2, "b");
+
+        cache.put(1, "abc");
+        cache.put(3, "c");
+
+        assertEquals("abc", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals(4, cache.weight());
+    }
+
+    @Test
+    public void put_ShouldEvictUntilWithinWeightBudget() {
+        // 16 stripes with a budget of 10 each
+        M3LruCache<Integer, String> cache = createCache(0, 160);
+        cache.put(0, "aaaa");
+        cache.put(SAME_STRIPE, "bbbb");
+        assertEquals(8, cache.weight());
+
+        cache.put(2 * SAME_STRIPE, "ccccccc");
+
+        assertNull(cache.get(0));
+        assertNull(cache.get(SAME_STRIPE));
+        assertEquals("ccccccc", cache.get(2 * SAME_STRIPE));
+        assertEquals(7, cache.weight());
+        assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    public void put_ShouldNotCacheValuesHeavierThanAStripe() {
+        M3LruCache<Integer, String> cache = createCache(0, 160);
+        cache.put(0, "aaaa");
+
+        cache.put(0, "x".repeat(11));
+
+        assertNull(cache.get(0));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void put_ShouldOnlyEvictFromTheKeysStripe() {
+        M3LruCache<Integer, String> cache = createCache(0, 160);
+        for (int key = 1; key < SAME_STRIPE; key++) {
+            cache.put(key, "aaaaaaaaaa");
+        }
+
+        // Filling the first stripe leaves the entries of the other stripes alone
+        cache.put(0, "aaaaaaaaaa");
+        cache.put(SAME_STRIPE, "aaaaaaaaaa");
+
+        assertNull(cache.get(0));
+        for (int key = 1; key <= SAME_STRIPE; key++) {
+            assertEquals("aaaaaaaaaa", cache.get(key));
+        }
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void constructor_ShouldUseFewerStripesForSmallCaches() {
+        // 16 entries get 4 stripes of 4 entries, so of 16 keys in one stripe
+        // only the last 4 are kept
+        M3LruCache<Integer, String> cache = createCache(16, 0);
+        for (int i = 0; i < 16; i++) {
+            cache.put(i * SAME_STRIPE, "a");
+        }
+
+        assertEquals(4, cache.size());
+        assertNull(cache.get(11 * SAME_STRIPE));
+        assertEquals("a", cache.get(12 * SAME_STRIPE));
+    }
+
+    @Test
+    public void get_ShouldCountHitsAndMisses() {
+        M3LruCache<Integer, String> cache = createCache(4, 0);
+        cache.put(1, "a");
+
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void clear_ShouldRemoveEntriesAndKeepCounters() {
+        M3LruCache<Integer, String> cache = createCache(4, 0);
+        cache.put(1, "a");
+        cache.get(1);
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertNull(cache.get(1));
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void constructor_ShouldRequireALimit() {
+        assertThrows(IllegalArgumentException.class, () -> createCache(0, 0));
+        assertThrows(IllegalArgumentException.class, () -> createCache(-1, 10));
+    }
+}
@@ -0,0 +1,270 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class M3PersistentEmbeddingCacheTests {
+    // Segment header, and record header of length, checksum and key
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 40;
+    private static final Set<M3OutputType> DENSE = EnumSet.of(M3OutputType.DENSE);
+
+    @TempDir
+    private Path directory;
+
+    private static M3EmbeddingOutput createOutput(float value) {
+        return new M3EmbeddingOutput(new float[] { value, value + 1 },
+                M3SparseVector.of(new int[] { 5 }, new float[] { value }, 1),
+                new M3ColBertMatrix(new float[] { value, -value }, 1, 2),
+                new int[] { 0, 5, 2 });
+    }
+
+    private static int recordLength(M3EmbeddingOutput output) {
+        return (RECORD_HEADER_SIZE + M3EmbeddingCodec.encodedSize(output) + 7) & ~7;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".m3c")).sorted().toList();
+        }
+    }
+
+    @Test
+    public void put_ThenGet_ShouldReturnStoredOutput() throws Exception {
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("text", M3OutputType.ALL, createOutput(1f));
+
+            M3EmbeddingOutput stored = cache.get("text", M3OutputType.ALL).toOutput();
+
+            assertArrayEquals(new float[] { 1f, 2f }, stored.getDenseEmbedding());
+            assertEquals(createOutput(1f).getSparseWeights(), stored.getSparseWeights());
+            assertArrayEquals(new float[] { 1f, -1f }, stored.getColBertMatrix().getData());
+            assertArrayEquals(new int[] { 0, 5, 2 }, stored.getTokenIds());
+            assertEquals(1, cache.getHitCount());
+        }
+    }
+
+    @Test
+    public void get_ShouldMissForOtherTextsAndOutputTypes() throws Exception {
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("text", M3OutputType.ALL, createOutput(1f));
+
+            assertNull(cache.get("other text", M3OutputType.ALL));
+            assertNull(cache.get("text", DENSE));
+            assertFalse(cache.contains("text", DENSE));
+            assertEquals(2, cache.getMissCount());
+        }
+    }
+
+    @Test
+    public void put_ShouldNotStoreAnOutputTwice() throws Exception {
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("text", M3OutputType.ALL, createOutput(1f));
+            long size = cache.getSizeInBytes();
+
+            cache.put("text", M3OutputType.ALL, createOutput(2f));
+
+            assertEquals(1, cache.getEntryCount());
+            assertEquals(size, cache.getSizeInBytes());
+            assertEquals(1f, cache.get("text", M3OutputType.ALL).getDenseEmbedding().get(0));
+        }
+    }
+
+    @Test
+    public void reopen_ShouldFindOutputsWrittenBefore() throws Exception {
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("first", M3OutputType.ALL, createOutput(1f));
+            cache.put("second", DENSE, createOutput(2f));
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(2, cache.getEntryCount());
+            assertEquals(1f, cache.get("first", M3OutputType.ALL).getDenseEmbedding().get(0));
+            assertEquals(2f, cache.get("second", DENSE).getDenseEmbedding().get(0));
+
+            // New records are appended after the existing ones
+            cache.put("third", M3OutputType.ALL, createOutput(3f));
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(3, cache.getEntryCount());
+            assertEquals(1, cache.getSegmentCount());
+            assertEquals(3f, cache.get("third", M3OutputType.ALL).getDenseEmbedding().get(0));
+        }
+    }
+
+    @Test
+    public void put_ShouldStartNewSegmentWhenTheLastOneIsFull() throws Exception {
+        M3EmbeddingOutput output = createOutput(1f);
+        // Room for two records and the terminating zero length
+        int segmentSize = SEGMENT_HEADER_SIZE + 2 * recordLength(output) + 4;
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model", segmentSize)) {
+            for (int i = 0; i < 5; i++) {
+                cache.put("text " + i, M3OutputType.ALL, createOutput(i));
+            }
+            assertEquals(3, cache.getSegmentCount());
+        }
+
+        assertEquals(3, listSegments().size());
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model", segmentSize)) {
+            assertEquals(5, cache.getEntryCount());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, cache.get("text " + i, M3OutputType.ALL).getDenseEmbedding().get(0));
+            }
+
+            cache.put("text 5", M3OutputType.ALL, createOutput(5f));
+            assertEquals(3, cache.getSegmentCount());
+            cache.put("text 6", M3OutputType.ALL, createOutput(6f));
+            assertEquals(4, cache.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void put_ShouldGiveOversizedOutputsASegmentOfTheirOwn() throws Exception {
+        M3EmbeddingOutput large = M3EmbeddingOutput.ofDense(new float[1024], new int[] { 0, 2 });
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model", 256)) {
+            cache.put("large", DENSE, large);
+
+            assertEquals(1024, cache.get("large", DENSE).getDenseEmbedding().remaining());
+        }
+    }
+
+    @Test
+    public void get_ShouldNotReturnOutputsOfAnotherModel() throws Exception {
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model-a")) {
+            cache.put("text", M3OutputType.ALL, createOutput(1f));
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model-b")) {
+            assertNull(cache.get("text", M3OutputType.ALL));
+
+            cache.put("text", M3OutputType.ALL, createOutput(2f));
+            assertEquals(2f, cache.get("text", M3OutputType.ALL).getDenseEmbedding().get(0));
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model-a")) {
+            assertEquals(1f, cache.get("text", M3OutputType.ALL).getDenseEmbedding().get(0));
+        }
+    }
+
+    @Test
+    public void reopen_ShouldDropRecordTornByAnUnfinishedWrite() throws Exception {
+        M3EmbeddingOutput output = createOutput(1f);
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("first", M3OutputType.ALL, output);
+            cache.put("second", M3OutputType.ALL, createOutput(2f));
+        }
+
+        // The length of the second record reached the disk, the end of its payload
+        // did not
+        Path segment = listSegments().get(0);
+        int secondOffset = SEGMENT_HEADER_SIZE + recordLength(output);
+        int secondEnd = secondOffset + RECORD_HEADER_SIZE + M3EmbeddingCodec.encodedSize(createOutput(2f));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8), secondEnd - 8);
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(1, cache.getEntryCount());
+            assertNotNull(cache.get("first", M3OutputType.ALL));
+            assertNull(cache.get("second", M3OutputType.ALL));
+
+            // The torn record is overwritten by the next append
+            cache.put("third", M3OutputType.ALL, createOutput(3f));
+            assertEquals(secondOffset + recordLength(createOutput(3f)), cache.getSizeInBytes());
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(2, cache.getEntryCount());
+            assertEquals(3f, cache.get("third", M3OutputType.ALL).getDenseEmbedding().get(0));
+        }
+    }
+
+    @Test
+    public void reopen_ShouldDropRecordCutOffByATruncatedFile() throws Exception {
+        M3EmbeddingOutput output = createOutput(1f);
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("first", M3OutputType.ALL, output);
+            cache.put("second", M3OutputType.ALL, createOutput(2f));
+        }
+
+        // Cut the file in the middle of the second record's payload
+        Path segment = listSegments().get(0);
+        int secondOffset = SEGMENT_HEADER_SIZE + recordLength(output);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(secondOffset + RECORD_HEADER_SIZE + 12);
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(1, cache.getEntryCount());
+            assertNull(cache.get("second", M3OutputType.ALL));
+
+            cache.put("second", M3OutputType.ALL, createOutput(2f));
+            assertEquals(2f, cache.get("second", M3OutputType.ALL).getDenseEmbedding().get(0));
+        }
+
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(2, cache.getEntryCount());
+            assertTrue(cache.contains("first", M3OutputType.ALL));
+            assertTrue(cache.contains("second", M3OutputType.ALL));
+        }
+    }
+
+    @Test
+    public void open_ShouldFailWhileAnotherCacheHasTheDirectoryOpen() throws Exception {
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            cache.put("text", M3OutputType.ALL, createOutput(1f));
+
+            assertThrows(IOException.class, () -> new M3PersistentEmbeddingCache(directory, "model"));
+            assertTrue(cache.contains("text", M3OutputType.ALL));
+        }
+
+        // Closing releases the lock
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(1, cache.getEntryCount());
+        }
+    }
+
+    @Test
+    public void open_ShouldReleaseTheLockWhenOpeningFails() throws Exception {
+        Path segment = directory.resolve("segment-000000.m3c");
+        Files.write(segment, new byte[SEGMENT_HEADER_SIZE]);
+        assertThrows(IOException.class, () -> new M3PersistentEmbeddingCache(directory, "model"));
+
+        Files.delete(segment);
+        try (M3PersistentEmbeddingCache cache = new M3PersistentEmbeddingCache(directory, "model")) {
+            assertEquals(0, cache.getEntryCount());
+        }
+    }
+
+    @Test
+    public void open_ShouldRejectFilesOfAnotherFormat() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, 0x12345678);
+        Files.write(directory.resolve("segment-000000.m3c"), header.array());
+
+        assertThrows(IOException.class, () -> new M3PersistentEmbeddingCache(directory, "model"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class M3TokenWindowsTests {
+    // [CLS], 7 content tokens, [SEP]
+    private static final int[] DOCUMENT = { 0, 10, 11, 12, 13, 14, 15, 16, 2 };
+
+    @Test
+    public void split_ShouldShareOverlapTokensBetweenWindows() {
+        M3TokenWindows windows = M3TokenWindows.split(DOCUMENT, 5, 1);
+
+        assertEquals(3, windows.windows.size());
+        assertArrayEquals(new int[] { 0, 10, 11, 12, 2 }, windows.windows.get(0));
+        assertArrayEquals(new int[] { 0, 12, 13, 14, 2 }, windows.windows.get(1));
+        assertArrayEquals(new int[] { 0, 14, 15, 16, 2 }, windows.windows.get(2));
+        assertArrayEquals(new int[] { 0, 2, 4 }, windows.starts);
+        assertArrayEquals(new int[] { 3, 5, 7 }, windows.ends);
+    }
+
+    @Test
+    public void split_ShouldEndWithAShorterWindow() {
+        M3TokenWindows windows = M3TokenWindows.split(DOCUMENT, 5, 0);
+
+        assertEquals(3, windows.windows.size());
+        assertArrayEquals(new int[] { 0, 16, 2 }, windows.windows.get(2));
+        assertArrayEquals(new int[] { 0, 3, 6 }, windows.starts);
+        assertArrayEquals(new int[] { 3, 6, 7 }, windows.ends);
+    }
+
+    @Test
+    public void split_ShouldKeepDocumentsThatFitIntoOneWindow() {
+        M3TokenWindows windows = M3TokenWindows.split(DOCUMENT, DOCUMENT.length, 2);
+
+        assertEquals(1, windows.windows.size());
+        assertArrayEquals(DOCUMENT, windows.windows.get(0));
+        assertArrayEquals(new int[] { 0 }, windows.starts);
+        assertArrayEquals(new int[] { 7 }, windows.ends);
+    }
+
+    @Test
+    public void split_ShouldReturnOneEmptyWindowForAnEmptyDocument() {
+        M3TokenWindows windows = M3TokenWindows.split(new int[] { 0, 2 }, 5, 1);
+
+        assertEquals(1, windows.windows.size());
+        assertArrayEquals(new int[] { 0, 2 }, windows.windows.get(0));
+        assertArrayEquals(new int[] { 0 }, windows.starts);
+        assertArrayEquals(new int[] { 0 }, windows.ends);
+    }
+
+    @Test
+    public void split_ShouldRejectWindowsThatCannotAdvance() {
+        assertThrows(IllegalArgumentException.class, () -> M3TokenWindows.split(DOCUMENT, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> M3TokenWindows.split(DOCUMENT, 5, 3));
+        assertThrows(IllegalArgumentException.class, () -> M3TokenWindows.split(DOCUMENT, 5, -1));
+    }
+}
@@ -0,0 +1,94 @@
+package com.yunikosoftware.bgem3onnx;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.yunikosoftware.bgem3onnx.performance.TestText;
+
+public class SentencePieceTokenizerTests {
+    private static Path tokenizerFile;
+    private static List<TestText> testTexts;
+
+    @BeforeAll
+    public static void setupClass() throws Exception {
+        tokenizerFile = RepositoryUtils.getTokenizerPath();
+        Path datasetFile = RepositoryUtils.getPerformanceDataDirectory().resolve("test_texts.json");
+
+        if (!tokenizerFile.toFile().exists())
+            throw new FileNotFoundException("Tokenizer file not found at " + tokenizerFile);
+        if (!datasetFile.toFile().exists())
+            throw new FileNotFoundException("Test dataset not found at " + datasetFile);
+
+        ObjectMapper mapper = new ObjectMapper();
+        testTexts = mapper.readValue(datasetFile.toFile(), new TypeReference<List<TestText>>() {
+        });
+    }
+
+    @Test
+    public void sentencePieceTokens_ShouldMatchOnnxTokenizer() throws Exception {
+        List<String> failedComparisons = new ArrayList<>();
+
+        try (OnnxTokenizer onnxTokenizer = new OnnxTokenizer(tokenizerFile.toString());
+                SentencePieceTokenizer sentencePieceTokenizer = SentencePieceTokenizer
+                        .fromOnnxTokenizer(tokenizerFile)) {
+            for (TestText testText : testTexts) {
+                String text = testText.getText();
+                int[] expected = onnxTokenizer.tokenize(List.of(text)).get(0);
+                int[] actual = sentencePieceTokenizer.tokenize(text);
+
+                if (!Arrays.equals(expected, actual)) {
+                    failedComparisons.add(String.format("[%s] '%s'\n  ONNX: %s\n  Java: %s", testText.getLanguage(),
+                            text, Arrays.toString(expected), Arrays.toString(actual)));
+                }
+            }
+        }
+
+        if (!failedComparisons.isEmpty()) {
+            fail(failedComparisons.size() + " of " + testTexts.size() + " texts tokenized differently:\n"
+                    + String.join("\n", failedComparisons));
+        }
+    }
+
+    @Test
+    public void testTexts_ShouldCoverNonLatinScripts() {
+        Set<String> languages = Set.of("chinese", "arabic", "russian");
+        long count = testTexts.stream().filter(text -> languages.contains(text.getLanguage())).count();
+        assertTrue(count > 0, "Expected Chinese, Arabic or Russian texts in the test dataset");
+    }
+
+    @Test
+    public void sentencePieceEmbedder_ShouldMatchOnnxTokenizerEmbedder() throws Exception {
+        Path modelFile = RepositoryUtils.getModelPath();
+        if (!modelFile.toFile().exists())
+            throw new FileNotFoundException("Model file not found at " + modelFile);
+
+        M3EmbedderConfig config = new M3EmbedderConfig.Builder()
+                .tokenizerType(TokenizerType.SENTENCEPIECE)
+                .build();
+        List<String> texts = testTexts.stream().limit(20).map(TestText::getText).toList();
+
+        try (M3Embedder onnxEmbedder = new M3Embedder(tokenizerFile.toString(), modelFile.toString());
+                M3Embedder javaEmbedder = new M3Embedder(tokenizerFile.toString(), modelFile.toString(), config)) {
+            List<M3EmbeddingOutput> expected = onnxEmbedder.generateEmbeddings(texts, Set.of(M3OutputType.DENSE));
+            List<M3EmbeddingOutput> actual = javaEmbedder.generateEmbeddings(texts, Set.of(M3OutputType.DENSE));
+
+            for (int i = 0; i < texts.size(); i++) {
+                assertTrue(Arrays.equals(expected.get(i).getTokenIds(), actual.get(i).getTokenIds()),
+                        "Token IDs differ for '" + texts.get(i) + "'");
+            }
+        }
+    }
+}
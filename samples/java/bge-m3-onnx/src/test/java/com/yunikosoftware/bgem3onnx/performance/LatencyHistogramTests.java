@@ -0,0 +1,113 @@
+package com.yunikosoftware.bgem3onnx.performance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTests {
+    @Test
+    public void getValueAtPercentile_ShouldBeExactBelow1024() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 100; value >= 1; value--) {
+            histogram.record(value);
+        }
+
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1, histogram.getValueAtPercentile(1));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(90, histogram.getValueAtPercentile(90));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(99.9));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void getValueAtPercentile_ShouldReportBucketMidpoint() {
+        // Between 1024 and 2047 buckets are 2 ns wide, so 1024 and 1025 share one
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1023);
+        histogram.record(1024);
+        histogram.record(1025);
+        histogram.record(5000);
+
+        assertEquals(1023, histogram.getValueAtPercentile(25));
+        assertEquals(1025, histogram.getValueAtPercentile(50));
+        assertEquals(1025, histogram.getValueAtPercentile(75));
+    }
+
+    @Test
+    public void getValueAtPercentile_ShouldStayWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = { 1_000_000, 2_345_678, 3_000_000, 987_654_321 };
+        for (long value : values) {
+            histogram.record(value);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            long reported = histogram.getValueAtPercentile(100.0 * (i + 1) / values.length);
+            assertEquals(values[i], reported, values[i] * 0.002);
+        }
+    }
+
+    @Test
+    public void getValueAtPercentile_ShouldBeClampedToMinAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+
+        assertEquals(1_000_001, histogram.getValueAtPercentile(0));
+        assertEquals(1_000_001, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void record_ShouldTrackStatisticsExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value : new long[] { 2, 4, 4, 4, 5, 5, 7, 9 }) {
+            histogram.record(value);
+        }
+
+        assertEquals(8, histogram.getCount());
+        assertEquals(2, histogram.getMin());
+        assertEquals(9, histogram.getMax());
+        assertEquals(5.0, histogram.getMean());
+        assertEquals(2.0, histogram.getStdDev(), 1e-9);
+    }
+
+    @Test
+    public void record_ShouldAcceptExtremeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getMin());
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100), Long.MAX_VALUE * 0.002);
+    }
+
+    @Test
+    public void getValueAtPercentile_ShouldReturnZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getStdDev());
+    }
+
+    @Test
+    public void getValueAtPercentile_ShouldRejectInvalidPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(-1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(100.1));
+    }
+
+    @Test
+    public void getValueAtPercentileMs_ShouldConvertToMilliseconds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2_500_000);
+
+        assertEquals(2.5, histogram.getValueAtPercentileMs(50));
+    }
+}